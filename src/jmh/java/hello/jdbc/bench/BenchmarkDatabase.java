@@ -0,0 +1,79 @@
+package hello.jdbc.bench;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.connection.DBConnectionUtil;
+import hello.jdbc.connection.PooledConnectionFactory;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static hello.jdbc.connection.ConnectionConst.POOL_MAX_SIZE;
+
+/**
+ * 벤치마크용 H2
+ * 벤치마크 프로세스 안의 메모리 데이터베이스를 사용하고, start 할 때마다 member 테이블을 새로 만든다.
+ * 개발용 ~/test 데이터베이스에는 연결하지 않는다.
+ * DBConnectionUtil 을 사용하는 V0 도 같은 데이터베이스를 측정하도록 DBConnectionUtil 의 팩토리를 이 URL 로 바꾼다.
+ */
+public abstract class BenchmarkDatabase {
+
+    public static final String URL = "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+    public static final String USERNAME = "sa";
+    public static final String PASSWORD = "";
+
+    private static PooledConnectionFactory factory;
+
+    public static void start() throws SQLException {
+        start(false);
+    }
+
+    /**
+     * @param versioned true 면 낙관적 이체에 필요한 version 컬럼을 같이 만든다.
+     */
+    public static synchronized void start(boolean versioned) throws SQLException {
+        try (Connection con = driverManager().getConnection(); Statement stmt = con.createStatement()) {
+            stmt.execute("drop table if exists member");
+            stmt.execute("create table member (" +
+                    "member_id varchar(10), " +
+                    "money integer not null default 0, " +
+                    (versioned ? "version bigint not null default 0, " : "") +
+                    "primary key (member_id))");
+        }
+        if (factory == null) {
+            // DBConnectionUtil 은 처음 사용할 때 풀을 만든다. 여기서 최대 크기까지 미리 연결해서
+            // 측정 중에 풀 생성이나 커넥션 추가 비용이 섞이지 않게 한다.
+            factory = new PooledConnectionFactory(URL, USERNAME, PASSWORD, POOL_MAX_SIZE, POOL_MAX_SIZE);
+            DBConnectionUtil.configure(factory);
+        }
+    }
+
+    public static DataSource dataSource(String type, int poolSize) {
+        if ("hikari".equals(type)) {
+            return hikari(poolSize);
+        }
+        return driverManager();
+    }
+
+    public static DriverManagerDataSource driverManager() {
+        return new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+    }
+
+    public static HikariDataSource hikari(int poolSize) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        dataSource.setMaximumPoolSize(poolSize);
+        dataSource.setMinimumIdle(poolSize);
+        return dataSource;
+    }
+
+    public static void close(DataSource dataSource) {
+        if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package hello.jdbc.bench;
+
+import hello.jdbc.repository.ex.MyDbException;
+import hello.jdbc.repository.ex.MyDbExceptionTranslator;
+import hello.jdbc.repository.ex.MyDuplicateKeyException;
+import hello.jdbc.repository.ex.MyLockConflictException;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 예외 경로 비용 비교
+ * legacy: 에러 코드를 직접 비교하고 스택 트레이스가 있는 예외를 만든다. (기존 MemberRepositoryV4_1 방식)
+ * translator: MyDbExceptionTranslator 로 표에서 분류하고, 복구 가능한 예외는 스택 트레이스 없이 만든다.
+ * SQLException 은 드라이버가 만드는 것이라 미리 만들어두고 변환 비용만 측정한다.
+ * depth 는 예외가 만들어지는 지점의 호출 깊이로, 스택 트레이스 비용은 깊이에 비례한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ExceptionTranslationBenchmark {
+
+    @Param({"duplicateKey", "lockTimeout", "other"})
+    String error;
+
+    @Param({"10", "100"})
+    int depth;
+
+    SQLException sqlException;
+    MyDbExceptionTranslator translator = MyDbExceptionTranslator.H2;
+
+    @Setup
+    public void setup() {
+        switch (error) {
+            case "duplicateKey":
+                sqlException = new SQLException("duplicate key", "23505", 23505);
+                break;
+            case "lockTimeout":
+                sqlException = new SQLException("lock timeout", "HYT00", 50200);
+                break;
+            default:
+                sqlException = new SQLException("syntax error", "42000", 42000);
+        }
+    }
+
+    @Benchmark
+    public MyDbException legacy() {
+        return throwAt(depth, true);
+    }
+
+    @Benchmark
+    public MyDbException translator() {
+        return throwAt(depth, false);
+    }
+
+    private MyDbException throwAt(int remaining, boolean legacy) {
+        if (remaining > 0) {
+            return throwAt(remaining - 1, legacy);
+        }
+        try {
+            throw legacy ? legacyTranslate(sqlException) : translator.translate(sqlException);
+        } catch (MyDbException e) {
+            return e;
+        }
+    }
+
+    private static MyDbException legacyTranslate(SQLException e) {
+        int errorCode = e.getErrorCode();
+        if (errorCode == 23505) {
+            return new MyDuplicateKeyException(e);
+        }
+        if (errorCode == 40001 || errorCode == 50200 || errorCode == 90131) {
+            return new MyLockConflictException(e);
+        }
+        return new MyDbException(e);
+    }
+}
@@ -0,0 +1,93 @@
+package hello.jdbc.bench;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberPage;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 페이지 깊이별 키셋 페이지와 offset 페이지 비교
+ * 키셋은 depth 와 관계없이 일정하고, offset 은 건너뛰는 행 수에 비례해서 느려진다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class KeysetPaginationBenchmark {
+
+    static final String PREFIX = "p";
+    static final int ROWS = 1_000_000;
+    static final int PAGE_SIZE = 100;
+
+    @Param({"0", "10000", "100000", "999000"})
+    int depth;
+
+    HikariDataSource dataSource;
+    MemberRepositoryV4_1 repository;
+    String lastMemberId;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        BenchmarkDatabase.start();
+        dataSource = BenchmarkDatabase.hikari(4);
+        repository = new MemberRepositoryV4_1(dataSource);
+        repository.saveAll(new Iterator<Member>() {
+            int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < ROWS;
+            }
+
+            @Override
+            public Member next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return new Member(memberId(next++), 10000);
+            }
+        });
+        lastMemberId = depth == 0 ? null : memberId(depth - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @Benchmark
+    public MemberPage keyset() {
+        return repository.findPageAfter(lastMemberId, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public int offset() throws SQLException {
+        String sql = "select member_id, money from member where member_id like ? order by member_id limit ? offset ?";
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement pstmt = con.prepareStatement(sql)) {
+            pstmt.setString(1, PREFIX + "%");
+            pstmt.setInt(2, PAGE_SIZE);
+            pstmt.setInt(3, depth);
+            int rows = 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                }
+            }
+            return rows;
+        }
+    }
+
+    static String memberId(int index) {
+        // 문자열 순서와 숫자 순서가 같도록 0 으로 채운다.
+        return PREFIX + String.format("%07d", index);
+    }
+}
@@ -0,0 +1,165 @@
+package hello.jdbc.bench;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV0;
+import hello.jdbc.repository.MemberRepositoryV1;
+import hello.jdbc.repository.MemberRepositoryV2;
+import hello.jdbc.repository.MemberRepositoryV3;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import hello.jdbc.repository.MemoryMemberRepository;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 저장소 세대별 save/findById/update/delete 비용
+ * Throughput 과 SampleTime(p50/p99/p99.9) 을 같이 측정하고, build.gradle 의 gc 프로파일러로 할당률을 본다.
+ * 멀티 스레드는 ./gradlew jmh -PjmhThreads=8 로 실행한다.
+ * V0 는 DBConnectionUtil 을 사용하므로 dataSource 파라미터와 관계없이 항상 DBConnectionUtil 의 커넥션 풀에서 빌린다.
+ * 그 풀은 처음 사용할 때 만들어지므로, @Setup 의 BenchmarkDatabase.start 에서 미리 만들고 채워서 측정 구간이 풀 시작 비용을 내지 않게 한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MemberRepositoryBenchmark {
+
+    static final String PREFIX = "r";
+    static final int MEMBERS = 1000;
+
+    @Param({"V0", "V1", "V2", "V3", "V4_1", "memory"})
+    String generation;
+
+    @Param({"driverManager", "hikari"})
+    String dataSourceType;
+
+    DataSource dataSource;
+    Generation repository;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        BenchmarkDatabase.start();
+        dataSource = BenchmarkDatabase.dataSource(dataSourceType, 16);
+        repository = generation(generation, dataSource);
+        for (int i = 0; i < MEMBERS; i++) {
+            repository.save(new Member(PREFIX + i, 10000));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkDatabase.close(dataSource);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private static final AtomicInteger sequence = new AtomicInteger();
+        // 스레드마다 고유한 id 로 save 후 delete 한다.
+        final String memberId = PREFIX + "s" + sequence.getAndIncrement();
+
+        String randomMemberId() {
+            return PREFIX + ThreadLocalRandom.current().nextInt(MEMBERS);
+        }
+    }
+
+    @Benchmark
+    public Member findById(ThreadState state) throws SQLException {
+        return repository.findById(state.randomMemberId());
+    }
+
+    @Benchmark
+    public void update(ThreadState state) throws SQLException {
+        repository.update(state.randomMemberId(), ThreadLocalRandom.current().nextInt(10000));
+    }
+
+    @Benchmark
+    public void saveAndDelete(ThreadState state) throws SQLException {
+        repository.save(new Member(state.memberId, 0));
+        repository.delete(state.memberId);
+    }
+
+    /**
+     * 세대마다 메서드 이름과 예외 선언이 달라서 벤치마크용으로 맞춘다.
+     */
+    interface Generation {
+        void save(Member member) throws SQLException;
+        Member findById(String memberId) throws SQLException;
+        void update(String memberId, int money) throws SQLException;
+        void delete(String memberId) throws SQLException;
+    }
+
+    static Generation generation(String name, DataSource dataSource) {
+        switch (name) {
+            case "V0": {
+                MemberRepositoryV0 repository = new MemberRepositoryV0();
+                return new Generation() {
+                    public void save(Member member) throws SQLException { repository.save(member); }
+                    public Member findById(String memberId) throws SQLException { return repository.finById(memberId); }
+                    public void update(String memberId, int money) throws SQLException { repository.update(memberId, money); }
+                    public void delete(String memberId) throws SQLException { repository.delete(memberId); }
+                };
+            }
+            case "V1": {
+                MemberRepositoryV1 repository = new MemberRepositoryV1(dataSource);
+                return new Generation() {
+                    public void save(Member member) throws SQLException { repository.save(member); }
+                    public Member findById(String memberId) throws SQLException { return repository.finById(memberId); }
+                    public void update(String memberId, int money) throws SQLException { repository.update(memberId, money); }
+                    public void delete(String memberId) throws SQLException { repository.delete(memberId); }
+                };
+            }
+            case "V2": {
+                // V2 는 서비스가 커넥션을 넘겨주는 방식이므로 조회/수정은 커넥션 파라미터 버전을 사용한다.
+                MemberRepositoryV2 repository = new MemberRepositoryV2(dataSource);
+                return new Generation() {
+                    public void save(Member member) throws SQLException { repository.save(member); }
+                    public Member findById(String memberId) throws SQLException {
+                        try (Connection con = dataSource.getConnection()) {
+                            return repository.finById(con, memberId);
+                        }
+                    }
+                    public void update(String memberId, int money) throws SQLException {
+                        try (Connection con = dataSource.getConnection()) {
+                            repository.update(con, memberId, money);
+                        }
+                    }
+                    public void delete(String memberId) throws SQLException { repository.delete(memberId); }
+                };
+            }
+            case "V3": {
+                MemberRepositoryV3 repository = new MemberRepositoryV3(dataSource);
+                return new Generation() {
+                    public void save(Member member) throws SQLException { repository.save(member); }
+                    public Member findById(String memberId) throws SQLException { return repository.finById(memberId); }
+                    public void update(String memberId, int money) throws SQLException { repository.update(memberId, money); }
+                    public void delete(String memberId) throws SQLException { repository.delete(memberId); }
+                };
+            }
+            case "V4_1": {
+                MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource);
+                return new Generation() {
+                    public void save(Member member) { repository.save(member); }
+                    public Member findById(String memberId) { return repository.findById(memberId); }
+                    public void update(String memberId, int money) { repository.update(memberId, money); }
+                    public void delete(String memberId) { repository.delete(memberId); }
+                };
+            }
+            case "memory": {
+                // DB 없는 기준선
+                MemoryMemberRepository repository = new MemoryMemberRepository();
+                return new Generation() {
+                    public void save(Member member) { repository.save(member); }
+                    public Member findById(String memberId) { return repository.findById(memberId); }
+                    public void update(String memberId, int money) { repository.update(memberId, money); }
+                    public void delete(String memberId) { repository.delete(memberId); }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown generation: " + name);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package hello.jdbc.bench;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.ShardedMemberRepository;
+import hello.jdbc.repository.ex.MyLockConflictException;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 샤드 수에 따른 쓰기 처리량
+ * 샤드마다 메모리 H2 데이터베이스와 Hikari 풀을 하나씩 둔다. 쓰기가 샤드에 고르게 나뉘면 샤드 수에 비례해서 늘어난다.
+ * transfer 는 샤드 수가 늘수록 샤드 간 이체 비율이 (N-1)/N 으로 늘어나서 조율 비용이 같이 보인다.
+ * transfer 의 락 충돌은 버리지 않고 success, conflict 보조 카운터로 따로 보고한다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class ShardedWriteBenchmark {
+
+    static final int MEMBERS = 10_000;
+    static final int POOL_SIZE = 8;
+
+    @Param({"1", "2", "4"})
+    int shardCount;
+
+    List<HikariDataSource> dataSources = new ArrayList<>();
+    ShardedMemberRepository repository;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        List<DataSource> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl("jdbc:h2:mem:bench_shard" + shardCount + "_" + i + ";DB_CLOSE_DELAY=-1");
+            dataSource.setUsername("sa");
+            dataSource.setMaximumPoolSize(POOL_SIZE);
+            dataSource.setMinimumIdle(POOL_SIZE);
+            try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement()) {
+                stmt.execute("drop table if exists member");
+                stmt.execute("create table member (" +
+                        "member_id varchar(10), " +
+                        "money integer not null default 0, " +
+                        "primary key (member_id))");
+            }
+            dataSources.add(dataSource);
+            shards.add(dataSource);
+        }
+        repository = new ShardedMemberRepository(shards);
+        List<Member> members = new ArrayList<>(MEMBERS);
+        for (int i = 0; i < MEMBERS; i++) {
+            members.add(new Member("s" + i, 1_000_000_000));
+        }
+        repository.saveAll(members);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSources.forEach(HikariDataSource::close);
+    }
+
+    @Benchmark
+    public void update() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        repository.update("s" + random.nextInt(MEMBERS), random.nextInt(10000));
+    }
+
+    @Benchmark
+    public boolean upsert() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return repository.upsert(new Member("s" + random.nextInt(MEMBERS), random.nextInt(10000)));
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long success;
+        public long conflict;
+    }
+
+    @Benchmark
+    public void transfer(Counters counters) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(MEMBERS);
+        // 같은 회원끼리 이체하지 않는다.
+        int to = (from + 1 + random.nextInt(MEMBERS - 1)) % MEMBERS;
+        try {
+            repository.transfer("s" + from, "s" + to, 1);
+            counters.success++;
+        } catch (MyLockConflictException e) {
+            // 샤드 안과 샤드 사이 모두 member_id 순서로 잠그므로 데드락은 없어야 한다. 락 타임아웃은 여기로 센다.
+            counters.conflict++;
+        }
+    }
+}
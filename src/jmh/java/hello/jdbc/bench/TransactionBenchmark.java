@@ -0,0 +1,163 @@
+package hello.jdbc.bench;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.TransferResult;
+import hello.jdbc.repository.MemberRepositoryV2;
+import hello.jdbc.repository.MemberRepositoryV3;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import hello.jdbc.service.GroupCommitTransferService;
+import hello.jdbc.service.MemberServiceV2;
+import hello.jdbc.service.MemberServiceV3_1;
+import hello.jdbc.service.MemberServiceV3_2;
+import hello.jdbc.service.MemberServiceV3_3;
+import hello.jdbc.service.MemberServiceV4;
+import hello.jdbc.service.TransferMode;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 트랜잭션 관리 방식별 accountTransfer 비용
+ * none 은 같은 SQL 4개를 트랜잭션 없이 한 커넥션에서 실행한다. (전략 - none) / 전략 이 트랜잭션 관리가 차지하는 비율이다.
+ * rollback 경로는 toId 를 "ex" 로 보내서 예외와 롤백을 발생시킨다.
+ * 스레드 수는 ./gradlew jmh -PjmhThreads=8 로 바꾼다. 스레드마다 자기 회원 두 명 사이에서만 이체해서 락 경합은 없다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TransactionBenchmark {
+
+    static final String PREFIX = "x";
+    static final String MEMBER_EX = "ex";
+    static final int MAX_THREADS = 64;
+
+    @Param({"none", "V2", "V3_1", "V3_2", "V3_3", "V4", "V4_relative", "groupCommit"})
+    String strategy;
+
+    @Param({"commit", "rollback"})
+    String path;
+
+    HikariDataSource dataSource;
+    Transfer transfer;
+    GroupCommitTransferService groupCommitService;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        BenchmarkDatabase.start();
+        dataSource = BenchmarkDatabase.hikari(MAX_THREADS);
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource);
+        repository.save(new Member(MEMBER_EX, 0));
+        for (int i = 0; i < MAX_THREADS; i++) {
+            repository.save(new Member(PREFIX + i + "a", 1_000_000));
+            repository.save(new Member(PREFIX + i + "b", 1_000_000));
+        }
+        transfer = transfer(strategy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (groupCommitService != null) {
+            groupCommitService.close();
+        }
+        dataSource.close();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private static final AtomicInteger sequence = new AtomicInteger();
+        final int index = sequence.getAndIncrement() % MAX_THREADS;
+        boolean forward;
+
+        String from() {
+            return PREFIX + index + (forward ? "a" : "b");
+        }
+
+        String to() {
+            return PREFIX + index + (forward ? "b" : "a");
+        }
+    }
+
+    @Benchmark
+    public void accountTransfer(ThreadState state) throws Exception {
+        // 방향을 번갈아 바꿔서 잔액이 한쪽으로 쏠리지 않게 한다.
+        state.forward = !state.forward;
+        if ("commit".equals(path)) {
+            transfer.run(state.from(), state.to(), 1);
+            return;
+        }
+        try {
+            transfer.run(state.from(), MEMBER_EX, 1);
+        } catch (IllegalStateException e) {
+            // 예상한 롤백
+        }
+    }
+
+    interface Transfer {
+        void run(String fromId, String toId, int money) throws Exception;
+    }
+
+    Transfer transfer(String strategy) {
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        switch (strategy) {
+            case "none": {
+                MemberRepositoryV2 repository = new MemberRepositoryV2(dataSource);
+                return (fromId, toId, money) -> {
+                    try (Connection con = dataSource.getConnection()) {
+                        Member fromMember = repository.finById(con, fromId);
+                        Member toMember = repository.finById(con, toId);
+                        repository.update(con, fromId, fromMember.getMoney() - money);
+                        if (toMember.getMemberId().equals(MEMBER_EX)) {
+                            // 트랜잭션이 없으므로 되돌리는 update 를 직접 실행한다.
+                            repository.update(con, fromId, fromMember.getMoney());
+                            throw new IllegalStateException("이체 중 예외 발생");
+                        }
+                        repository.update(con, toId, toMember.getMoney() + money);
+                    }
+                };
+            }
+            case "V2":
+                return new MemberServiceV2(dataSource, new MemberRepositoryV2(dataSource))::accountTransfer;
+            case "V3_1":
+                return new MemberServiceV3_1(transactionManager, new MemberRepositoryV3(dataSource))::accountTransfer;
+            case "V3_2":
+                return new MemberServiceV3_2(transactionManager, new MemberRepositoryV3(dataSource))::accountTransfer;
+            case "V3_3":
+                return transactional(new MemberServiceV3_3(new MemberRepositoryV3(dataSource)), transactionManager)::accountTransfer;
+            case "V4":
+                return transactional(new MemberServiceV4(new MemberRepositoryV4_1(dataSource)), transactionManager)::accountTransfer;
+            case "V4_relative":
+                return transactional(new MemberServiceV4(new MemberRepositoryV4_1(dataSource), TransferMode.RELATIVE), transactionManager)::accountTransfer;
+            case "groupCommit": {
+                // 스레드가 많을수록 한 트랜잭션에 여러 이체가 모인다.
+                groupCommitService = new GroupCommitTransferService(new MemberRepositoryV4_1(dataSource), transactionManager);
+                return (fromId, toId, money) -> {
+                    TransferResult result = groupCommitService.submit(fromId, toId, money).join();
+                    if (!result.isSuccess()) {
+                        throw new IllegalStateException(result.getFailureReason());
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown strategy: " + strategy);
+        }
+    }
+
+    /**
+     * 스프링 컨테이너 없이 @Transactional 프록시를 만든다. 스프링 부트가 만드는 CGLIB 프록시와 같은 구조다.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T transactional(T target, DataSourceTransactionManager transactionManager) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+        return (T) proxyFactory.getProxy();
+    }
+}
@@ -0,0 +1,76 @@
+package hello.jdbc.bench;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import hello.jdbc.repository.ex.MyLockConflictException;
+import hello.jdbc.service.MemberServiceV4;
+import hello.jdbc.service.TransferMode;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 같은 두 회원 사이에서 절반의 스레드는 A->B, 나머지는 B->A 로 이체한다.
+ * READ_MODIFY_WRITE, RELATIVE 는 스레드마다 잠그는 순서가 달라 데드락과 락 대기 시간 초과가 생기고,
+ * PESSIMISTIC 은 member_id 순서로 잠가서 대기만 생긴다.
+ * OPTIMISTIC 은 version 을 비교해서 member_id 순서로 갱신하고, 충돌하면 백오프 후 다시 읽는다.
+ * 모든 모드가 같은 조건에서 측정되도록 member 테이블에 version 컬럼을 둔다. 성공/충돌 횟수는 보조 카운터로 출력된다.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+public class TransferContentionBenchmark {
+
+    static final String MEMBER_A = "hotA";
+    static final String MEMBER_B = "hotB";
+
+    @Param({"READ_MODIFY_WRITE", "RELATIVE", "PESSIMISTIC", "OPTIMISTIC"})
+    TransferMode mode;
+
+    HikariDataSource dataSource;
+    MemberRepositoryV4_1 repository;
+    MemberServiceV4 memberService;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        BenchmarkDatabase.start(true);
+        dataSource = BenchmarkDatabase.hikari(16);
+        repository = new MemberRepositoryV4_1(dataSource);
+        repository.save(new Member(MEMBER_A, 1_000_000_000));
+        repository.save(new Member(MEMBER_B, 1_000_000_000));
+        memberService = TransactionBenchmark.transactional(new MemberServiceV4(repository, mode), new DataSourceTransactionManager(dataSource));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        private static final AtomicInteger sequence = new AtomicInteger();
+        private final boolean forward = sequence.getAndIncrement() % 2 == 0;
+        public long success;
+        public long conflict;
+    }
+
+    @Benchmark
+    public void accountTransfer(Counters counters) {
+        try {
+            if (counters.forward) {
+                memberService.accountTransfer(MEMBER_A, MEMBER_B, 1);
+            } else {
+                memberService.accountTransfer(MEMBER_B, MEMBER_A, 1);
+            }
+            counters.success++;
+        } catch (MyLockConflictException e) {
+            counters.conflict++;
+        }
+    }
+}
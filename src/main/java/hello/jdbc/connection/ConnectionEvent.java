@@ -0,0 +1,34 @@
+package hello.jdbc.connection;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * ConnectionTracer 가 기록한 커넥션 대여/반납 이벤트
+ */
+@Getter
+@ToString
+public class ConnectionEvent {
+
+    public enum Type {
+        BORROW,
+        RETURN
+    }
+
+    private final Type type;
+    // 대여 한 번마다 붙는 번호. 같은 대여의 BORROW 와 RETURN 은 같은 번호를 가진다.
+    private final long borrowId;
+    private final long threadId;
+    // System.nanoTime() 기준
+    private final long timestampNanos;
+    // RETURN 이벤트에서만 의미가 있다.
+    private final long holdNanos;
+
+    public ConnectionEvent(Type type, long borrowId, long threadId, long timestampNanos, long holdNanos) {
+        this.type = type;
+        this.borrowId = borrowId;
+        this.threadId = threadId;
+        this.timestampNanos = timestampNanos;
+        this.holdNanos = holdNanos;
+    }
+}
@@ -0,0 +1,198 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 커넥션 대여/반납 이벤트 추적기
+ * 요청 스레드는 미리 할당한 링 버퍼에 숫자만 기록하고(락, 할당, 문자열 포맷 없음), 백그라운드 스레드가 주기적으로 꺼내서 sink 로 보낸다.
+ * 대여 N 건 중 1 건을 샘플링하고, 보유 시간이 slowThreshold 이상인 반납은 샘플링과 관계없이 기록한다.
+ * 버퍼가 가득 차면 오래된 이벤트를 덮어쓰고 getDroppedCount 로 센다.
+ */
+@Slf4j
+public class ConnectionTracer implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+    // 기록 중인 슬롯 표시
+    private static final long WRITING = -1;
+    // 같은 슬롯에서 이만큼 기다려도 기록이 끝나지 않으면 잃어버린 이벤트로 센다.
+    private static final int MAX_STALLED_DRAINS = 3;
+
+    private final int mask;
+    private final int sampleRate;
+    private final long slowThresholdNanos;
+    private final long flushIntervalMillis;
+    private final Consumer<ConnectionEvent> sink;
+
+    // 슬롯마다 기록이 끝난 이벤트의 순번. 읽기 전후로 비교해서 덮어쓰인 슬롯을 걸러낸다.
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray types;
+    private final AtomicLongArray borrowIds;
+    private final AtomicLongArray threadIds;
+    private final AtomicLongArray timestamps;
+    private final AtomicLongArray holdNanos;
+    private final AtomicLong head = new AtomicLong();
+    // 백그라운드 스레드만 사용한다.
+    private long tail;
+    private int stalledDrains;
+
+    private final LongAdder dropped = new LongAdder();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    /**
+     * 이벤트를 구조화된 로그("event=... borrowId=... thread=... holdMicros=...")로 남긴다.
+     */
+    public ConnectionTracer(int sampleRate, long slowThresholdMillis) {
+        this(DEFAULT_CAPACITY, sampleRate, slowThresholdMillis, DEFAULT_FLUSH_INTERVAL_MILLIS, ConnectionTracer::logEvent);
+    }
+
+    /**
+     * @param capacity 2의 거듭제곱으로 올림한다.
+     * @param sampleRate 대여 sampleRate 건 중 1 건을 기록한다. 1 이면 모두 기록한다.
+     */
+    public ConnectionTracer(int capacity, int sampleRate, long slowThresholdMillis, long flushIntervalMillis,
+                            Consumer<ConnectionEvent> sink) {
+        if (capacity < 1 || sampleRate < 1) {
+            throw new IllegalArgumentException("capacity and sampleRate must be positive");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.sampleRate = sampleRate;
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.sink = sink;
+        this.sequences = new AtomicLongArray(size);
+        this.types = new AtomicLongArray(size);
+        this.borrowIds = new AtomicLongArray(size);
+        this.threadIds = new AtomicLongArray(size);
+        this.timestamps = new AtomicLongArray(size);
+        this.holdNanos = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            // 0 번 이벤트와 구분하기 위해 아직 쓰지 않은 슬롯은 WRITING 으로 둔다.
+            sequences.set(i, WRITING);
+        }
+        this.flusher = new Thread(this::run, "connection-tracer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * 대여할 때 한 번 호출해서 이 대여를 샘플링할지 정한다. 반납할 때 같은 값을 넘긴다.
+     */
+    public boolean sample() {
+        return sampleRate == 1 || ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    public void borrowed(long borrowId, boolean sampled) {
+        if (sampled) {
+            publish(ConnectionEvent.Type.BORROW, borrowId, 0);
+        }
+    }
+
+    public void returned(long borrowId, long holdNanos, boolean sampled) {
+        if (sampled || holdNanos >= slowThresholdNanos) {
+            publish(ConnectionEvent.Type.RETURN, borrowId, holdNanos);
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 남은 이벤트를 모두 내보내고 백그라운드 스레드를 종료한다.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        flusher.interrupt();
+        flusher.join();
+    }
+
+    private void publish(ConnectionEvent.Type type, long borrowId, long hold) {
+        long sequence = head.getAndIncrement();
+        int index = (int) sequence & mask;
+        sequences.set(index, WRITING);
+        types.set(index, type.ordinal());
+        borrowIds.set(index, borrowId);
+        threadIds.set(index, Thread.currentThread().getId());
+        timestamps.set(index, System.nanoTime());
+        holdNanos.set(index, hold);
+        sequences.set(index, sequence);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Thread.sleep(flushIntervalMillis);
+            } catch (InterruptedException e) {
+                // close() 에서 깨운다.
+            }
+            drain(false);
+        }
+        drain(true);
+    }
+
+    private void drain(boolean closing) {
+        long published = head.get();
+        int capacity = mask + 1;
+        if (published - tail > capacity) {
+            // 읽기 전에 덮어쓰인 이벤트
+            dropped.add(published - tail - capacity);
+            tail = published - capacity;
+        }
+        while (tail < published) {
+            int index = (int) tail & mask;
+            long before = sequences.get(index);
+            if (before < tail) {
+                // 아직 기록 중이면 다음 주기에 다시 읽는다.
+                // 순번을 받고 늦게 기록을 마친 스레드가 더 오래된 순번으로 덮어쓴 경우에도 이렇게 보이므로 무한정 기다리지 않는다.
+                if (!closing && ++stalledDrains < MAX_STALLED_DRAINS) {
+                    break;
+                }
+                dropped.increment();
+                tail++;
+                continue;
+            }
+            stalledDrains = 0;
+            if (before != tail) {
+                dropped.increment();
+                tail++;
+                continue;
+            }
+            ConnectionEvent event = new ConnectionEvent(ConnectionEvent.Type.values()[(int) types.get(index)],
+                    borrowIds.get(index), threadIds.get(index), timestamps.get(index), holdNanos.get(index));
+            if (sequences.get(index) != tail) {
+                // 읽는 도중에 다른 이벤트가 덮어썼다.
+                dropped.increment();
+            } else {
+                emit(event);
+            }
+            tail++;
+        }
+    }
+
+    private void emit(ConnectionEvent event) {
+        try {
+            sink.accept(event);
+        } catch (RuntimeException e) {
+            log.warn("connection event sink error", e);
+        }
+    }
+
+    private static void logEvent(ConnectionEvent event) {
+        log.info("event={} borrowId={} thread={} holdMicros={}", event.getType(), event.getBorrowId(),
+                event.getThreadId(), TimeUnit.NANOSECONDS.toMicros(event.getHoldNanos()));
+    }
+}
@@ -3,21 +3,51 @@ package hello.jdbc.connection;
 import lombok.extern.slf4j.Slf4j;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import static hello.jdbc.connection.ConnectionConst.*;
 
+/**
+ * DriverManager 로 매번 연결하는 대신 ConnectionConst 설정의 커넥션 풀에서 커넥션을 빌린다.
+ * 커넥션을 close() 하면 풀로 반납된다.
+ */
 @Slf4j
 public class DBConnectionUtil {
 
+    private static volatile PooledConnectionFactory factory;
+
     public static Connection getConnection() {
         try {
-            Connection connection = DriverManager.getConnection(URL, USERNAME, PASSWORD);
-            log.info("get connection={}, class={}", connection, connection.getClass());
+            Connection connection = factory().getConnection();
+            log.debug("get connection={}, class={}", connection, connection.getClass());
             return connection;
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
+
+    public static PooledConnectionFactory factory() {
+        PooledConnectionFactory current = factory;
+        if (current == null) {
+            synchronized (DBConnectionUtil.class) {
+                current = factory;
+                if (current == null) {
+                    current = new PooledConnectionFactory(URL, USERNAME, PASSWORD, POOL_MIN_IDLE, POOL_MAX_SIZE);
+                    factory = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 스프링 설정 등에서 다른 설정의 팩토리로 교체한다. 이전 팩토리는 닫는다.
+     */
+    public static synchronized void configure(PooledConnectionFactory newFactory) {
+        PooledConnectionFactory old = factory;
+        factory = newFactory;
+        if (old != null && old != newFactory) {
+            old.close();
+        }
+    }
 }
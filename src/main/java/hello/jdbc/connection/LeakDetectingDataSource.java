@@ -0,0 +1,201 @@
+package hello.jdbc.connection;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 커넥션 누수, 장시간 보유 탐지 DataSource
+ * 빌려준 커넥션을 반납(close) 할 때까지 추적한다.
+ * - 보유 시간이 holdBudget 을 넘은 채로 반납되면 경고하고 센다. failOnBudgetExceeded 면 그 커넥션의 commit 을 롤백으로 바꾸고 예외를 던진다.
+ * - leakThreshold 가 지나도 반납되지 않은 커넥션은 백그라운드 스레드가 누수로 보고한다.
+ * 대여 위치(스택)는 siteSampleRate 번에 한 번만, 애플리케이션 프레임 몇 개만 StackWalker 로 수집한다.
+ */
+@Slf4j
+public class LeakDetectingDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private static final int SITE_DEPTH = 8;
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    private final long holdBudgetNanos;
+    private final long leakThresholdNanos;
+    private final int siteSampleRate;
+    private final boolean failOnBudgetExceeded;
+
+    private final ConcurrentHashMap<Long, OpenConnection> openConnections = new ConcurrentHashMap<>();
+    private final AtomicLong borrowIds = new AtomicLong();
+    private final LongAdder longHolds = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final Thread leakChecker;
+    private volatile boolean running = true;
+
+    /**
+     * @param siteSampleRate 대여 위치를 수집하는 주기. 1 이면 매번, 0 이면 수집하지 않는다.
+     */
+    public LeakDetectingDataSource(DataSource targetDataSource, long holdBudgetMillis, long leakThresholdMillis,
+                                   int siteSampleRate, boolean failOnBudgetExceeded) {
+        super(targetDataSource);
+        this.holdBudgetNanos = TimeUnit.MILLISECONDS.toNanos(holdBudgetMillis);
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+        this.siteSampleRate = siteSampleRate;
+        this.failOnBudgetExceeded = failOnBudgetExceeded;
+        long checkIntervalMillis = Math.max(1, leakThresholdMillis / 2);
+        this.leakChecker = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(checkIntervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                checkLeaks();
+            }
+        }, "connection-leak-checker");
+        this.leakChecker.setDaemon(true);
+        this.leakChecker.start();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return track(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return track(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    /**
+     * 아직 반납되지 않은 커넥션. 테스트에서 모든 커넥션이 반납되었는지 확인할 때 사용한다.
+     */
+    public List<OpenConnection> getOpenConnections() {
+        return new ArrayList<>(openConnections.values());
+    }
+
+    /**
+     * leakThreshold 보다 오래 반납되지 않은 커넥션을 찾는다. 처음 발견했을 때만 경고한다.
+     */
+    public List<OpenConnection> checkLeaks() {
+        long now = System.nanoTime();
+        List<OpenConnection> leaked = new ArrayList<>();
+        for (OpenConnection open : openConnections.values()) {
+            if (now - open.borrowNanos >= leakThresholdNanos) {
+                leaked.add(open);
+                if (!open.reported) {
+                    open.reported = true;
+                    leaks.increment();
+                    log.warn("connection leak suspected {}", open);
+                }
+            }
+        }
+        return leaked;
+    }
+
+    public long getLongHoldCount() {
+        return longHolds.sum();
+    }
+
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        leakChecker.interrupt();
+        leakChecker.join();
+    }
+
+    private Connection track(Connection target) {
+        long borrowId = borrowIds.incrementAndGet();
+        StackTraceElement[] site = siteSampleRate > 0 && borrowId % siteSampleRate == 0 ? captureSite() : null;
+        OpenConnection open = new OpenConnection(borrowId, Thread.currentThread().getName(), System.nanoTime(), site);
+        openConnections.put(borrowId, open);
+        return ObservedConnection.observe(target, new Tracking(open));
+    }
+
+    private void released(OpenConnection open) {
+        openConnections.remove(open.borrowId);
+        long held = open.getHeldNanos();
+        if (held > holdBudgetNanos) {
+            longHolds.increment();
+            log.warn("connection held over budget budgetMillis={} {}", TimeUnit.NANOSECONDS.toMillis(holdBudgetNanos), open);
+        }
+    }
+
+    private static StackTraceElement[] captureSite() {
+        // 드라이버, 풀, 스프링, 이 클래스 프레임은 건너뛰고 애플리케이션 프레임만 남긴다.
+        return STACK_WALKER.walk(frames -> frames
+                .filter(frame -> !isInfrastructure(frame.getClassName()))
+                .limit(SITE_DEPTH)
+                .map(StackWalker.StackFrame::toStackTraceElement)
+                .toArray(StackTraceElement[]::new));
+    }
+
+    private static boolean isInfrastructure(String className) {
+        return className.startsWith("java.") || className.startsWith("jdk.") || className.startsWith("sun.")
+                || className.startsWith("com.sun.proxy.") || className.startsWith("org.springframework.")
+                || className.startsWith("com.zaxxer.") || className.startsWith(LeakDetectingDataSource.class.getName());
+    }
+
+    @Getter
+    public static class OpenConnection {
+        private final long borrowId;
+        private final String threadName;
+        private final long borrowNanos;
+        // 샘플링되지 않았으면 null
+        private final StackTraceElement[] site;
+        private volatile boolean reported;
+
+        OpenConnection(long borrowId, String threadName, long borrowNanos, StackTraceElement[] site) {
+            this.borrowId = borrowId;
+            this.threadName = threadName;
+            this.borrowNanos = borrowNanos;
+            this.site = site;
+        }
+
+        public long getHeldNanos() {
+            return System.nanoTime() - borrowNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "borrowId=" + borrowId + ", thread=" + threadName
+                    + ", heldMillis=" + TimeUnit.NANOSECONDS.toMillis(getHeldNanos())
+                    + ", site=" + (site == null ? "(not sampled)" : Arrays.toString(site));
+        }
+    }
+
+    private class Tracking implements ObservedConnection.Listener {
+
+        private final OpenConnection open;
+
+        Tracking(OpenConnection open) {
+            this.open = open;
+        }
+
+        @Override
+        public void beforeCommit(Connection target) throws SQLException {
+            if (failOnBudgetExceeded && open.getHeldNanos() > holdBudgetNanos) {
+                // 예산을 넘긴 트랜잭션은 커밋하지 않는다.
+                target.rollback();
+                throw new SQLException("connection hold budget exceeded, rolled back " + open);
+            }
+        }
+
+        @Override
+        public void closed() {
+            released(open);
+        }
+    }
+}
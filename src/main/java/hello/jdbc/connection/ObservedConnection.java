@@ -0,0 +1,360 @@
+package hello.jdbc.connection;
+
+import org.springframework.jdbc.datasource.ConnectionProxy;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * 대여한 커넥션의 commit, close 를 Listener 에 알리는 위임 커넥션
+ * TracingDataSource, LeakDetectingDataSource, ReadWriteRoutingDataSource 의 복제본이 함께 사용한다.
+ * 이미 ObservedConnection 이면 새로 감싸지 않고 Listener 만 추가하므로, DataSource 를 겹쳐 쌓아도 대여마다 래퍼는 하나다.
+ * JDK 동적 프록시와 리플렉션 없이 모든 호출을 target 에 바로 위임한다.
+ * 커넥션 하나는 한 번에 한 스레드만 사용하므로 동기화하지 않는다.
+ */
+public final class ObservedConnection implements ConnectionProxy {
+
+    public interface Listener {
+
+        /**
+         * target 에 commit 하기 전에 호출된다. 예외를 던지면 commit 하지 않는다.
+         */
+        default void beforeCommit(Connection target) throws SQLException {
+        }
+
+        /**
+         * 처음 close 할 때 한 번만, target 을 close 하기 전에 호출된다.
+         */
+        void closed();
+    }
+
+    private final Connection target;
+    private final List<Listener> listeners = new ArrayList<>(2);
+    private boolean closed;
+
+    private ObservedConnection(Connection target) {
+        this.target = target;
+    }
+
+    /**
+     * con 에 listener 를 붙인다. con 이 이미 ObservedConnection 이면 그대로 반환한다.
+     */
+    public static Connection observe(Connection con, Listener listener) {
+        ObservedConnection observed = con instanceof ObservedConnection ? (ObservedConnection) con : new ObservedConnection(con);
+        observed.listeners.add(listener);
+        return observed;
+    }
+
+    @Override
+    public Connection getTargetConnection() {
+        return target;
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        // 바깥 DataSource 가 나중에 추가되므로, 감싼 순서대로 역순으로 호출한다.
+        for (int i = listeners.size() - 1; i >= 0; i--) {
+            listeners.get(i).beforeCommit(target);
+        }
+        target.commit();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (!closed) {
+            closed = true;
+            for (int i = listeners.size() - 1; i >= 0; i--) {
+                listeners.get(i).closed();
+            }
+        }
+        target.close();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return target.isClosed();
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return target.createStatement();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return target.createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return target.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return target.prepareStatement(sql);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return target.prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency,
+                                              int resultSetHoldability) throws SQLException {
+        return target.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return target.prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return target.prepareStatement(sql, columnIndexes);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return target.prepareStatement(sql, columnNames);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return target.prepareCall(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return target.prepareCall(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency,
+                                         int resultSetHoldability) throws SQLException {
+        return target.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return target.nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        target.setAutoCommit(autoCommit);
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        return target.getAutoCommit();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        target.rollback();
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        target.rollback(savepoint);
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        return target.setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        return target.setSavepoint(name);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        target.releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return target.getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        target.setReadOnly(readOnly);
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        return target.isReadOnly();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        target.setCatalog(catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return target.getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        target.setTransactionIsolation(level);
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        return target.getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return target.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        target.clearWarnings();
+    }
+
+    @Override
+    public Map<String, Class<?>> getTypeMap() throws SQLException {
+        return target.getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+        target.setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        target.setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return target.getHoldability();
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return target.createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return target.createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return target.createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return target.createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        return target.isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        target.setClientInfo(name, value);
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        target.setClientInfo(properties);
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return target.getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return target.getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return target.createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return target.createStruct(typeName, attributes);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        target.setSchema(schema);
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        return target.getSchema();
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        target.abort(executor);
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        target.setNetworkTimeout(executor, milliseconds);
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        return target.getNetworkTimeout();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        return "ObservedConnection[" + target + "]";
+    }
+}
@@ -0,0 +1,81 @@
+package hello.jdbc.connection;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import hello.jdbc.metrics.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 커넥션 풀 기반 커넥션 팩토리
+ * 생성할 때 최소 커넥션 수만큼 미리 연결해두고, 유휴 커넥션은 keepalive 로 백그라운드에서 검증한다.
+ * 커넥션 획득 시간은 히스토그램으로 기록한다.
+ */
+@Slf4j
+public class PooledConnectionFactory implements AutoCloseable {
+
+    private final HikariDataSource dataSource;
+    private final LatencyHistogram acquireTime = new LatencyHistogram();
+
+    public PooledConnectionFactory(String url, String username, String password, int minIdle, int maxSize) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setMinimumIdle(minIdle);
+        config.setMaximumPoolSize(maxSize);
+        config.setPoolName("DBConnectionUtil");
+        // 대여할 때 검증하는 대신 유휴 커넥션을 주기적으로 검증한다. (HikariCP 최소값 30초)
+        config.setKeepaliveTime(TimeUnit.SECONDS.toMillis(30));
+        config.setMetricsTrackerFactory((poolName, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTime.record(elapsedAcquiredNanos);
+            }
+        });
+        this.dataSource = new HikariDataSource(config);
+        prewarm(minIdle);
+    }
+
+    public Connection getConnection() throws SQLException {
+        return dataSource.getConnection();
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * 커넥션 획득 시간(ns)
+     */
+    public LatencyHistogram getAcquireTime() {
+        return acquireTime;
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+
+    private void prewarm(int minIdle) {
+        // 풀은 최소 커넥션을 비동기로 채우므로, 직접 빌렸다 반납해서 첫 요청이 연결 비용을 내지 않게 한다.
+        List<Connection> connections = new ArrayList<>(minIdle);
+        try {
+            for (int i = 0; i < minIdle; i++) {
+                connections.add(dataSource.getConnection());
+            }
+        } catch (SQLException e) {
+            log.warn("connection pool prewarm failed", e);
+        } finally {
+            connections.forEach(JdbcUtils::closeConnection);
+        }
+    }
+}
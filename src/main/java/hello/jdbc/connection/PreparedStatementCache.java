@@ -0,0 +1,236 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 물리 커넥션 단위 PreparedStatement 캐시
+ * 커넥션 풀은 대여할 때마다 프록시 커넥션을 주고, 프록시를 닫을 때 그 프록시로 만든 statement 를 모두 닫는다.
+ * 그래서 statement 는 unwrap 한 물리 커넥션에서 만들고, 같은 물리 커넥션을 다시 빌렸을 때 트랜잭션 밖에서도 재사용한다.
+ * 물리 커넥션이 실제로 닫힐 때 캐시를 비우려면 풀에 invalidateOnClose() 로 감싼 DataSource 를 넘긴다.
+ * (HikariConfig.setDataSource) 감싸지 않으면 닫힌 커넥션의 캐시는 새 물리 커넥션을 처음 볼 때 정리한다.
+ * 풀은 물리 커넥션에서 만든 statement 를 모르므로, 트랜잭션은 커밋이나 롤백으로 끝내야 한다.
+ * 커넥션 하나는 한 번에 한 스레드만 사용하므로 커넥션별 캐시의 락은 경합하지 않는다.
+ */
+@Slf4j
+public class PreparedStatementCache {
+
+    public static final int DEFAULT_MAX_STATEMENTS_PER_CONNECTION = 16;
+
+    private final int maxStatementsPerConnection;
+    // 물리 커넥션 -> 해당 커넥션의 statement 캐시. 드라이버 커넥션은 equals 를 재정의하지 않으므로 식별자로 비교된다.
+    private final Map<Connection, Statements> caches = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public PreparedStatementCache() {
+        this(DEFAULT_MAX_STATEMENTS_PER_CONNECTION);
+    }
+
+    public PreparedStatementCache(int maxStatementsPerConnection) {
+        if (maxStatementsPerConnection < 1) {
+            throw new IllegalArgumentException("maxStatementsPerConnection must be positive: " + maxStatementsPerConnection);
+        }
+        this.maxStatementsPerConnection = maxStatementsPerConnection;
+    }
+
+    /**
+     * 풀이 물리 커넥션을 얻을 DataSource 를 감싼다. 풀이 물리 커넥션을 닫으면 그 커넥션의 캐시를 비운다.
+     */
+    public DataSource invalidateOnClose(DataSource physicalDataSource) {
+        return new DelegatingDataSource(physicalDataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                return observe(obtainTargetDataSource().getConnection());
+            }
+
+            @Override
+            public Connection getConnection(String username, String password) throws SQLException {
+                return observe(obtainTargetDataSource().getConnection(username, password));
+            }
+        };
+    }
+
+    /**
+     * 캐시된 statement 를 꺼내거나 물리 커넥션에서 새로 준비한다.
+     * 꺼낸 statement 는 release 할 때까지 캐시에서 빠져 있으므로 사용 중에 LRU 로 닫히지 않는다.
+     */
+    public PreparedStatement prepare(Connection con, String sql) throws SQLException {
+        Connection physical = physical(con);
+        Statements statements = statementsOf(physical);
+        synchronized (statements) {
+            PreparedStatement pstmt = statements.idle.remove(sql);
+            if (pstmt != null && !pstmt.isClosed()) {
+                hits.increment();
+            } else {
+                misses.increment();
+                pstmt = physical.prepareStatement(sql);
+            }
+            statements.inUse.put(pstmt, sql);
+            return pstmt;
+        }
+    }
+
+    /**
+     * 사용이 끝난 statement 를 캐시로 돌려준다. con 은 prepare 에 넘긴, 대여한 커넥션이다.
+     * 캐시에서 꺼낸 statement 가 아니면 그냥 닫는다.
+     */
+    public void release(Connection con, PreparedStatement pstmt) {
+        if (pstmt == null) {
+            return;
+        }
+        try {
+            Statements statements = caches.get(physical(con));
+            if (statements == null) {
+                JdbcUtils.closeStatement(pstmt);
+                return;
+            }
+            synchronized (statements) {
+                String sql = statements.inUse.remove(pstmt);
+                if (sql == null) {
+                    JdbcUtils.closeStatement(pstmt);
+                    return;
+                }
+                // 다음 사용자가 이전 파라미터나 남은 배치를 물려받지 않도록 비운다.
+                pstmt.clearParameters();
+                pstmt.clearBatch();
+                PreparedStatement old = statements.idle.put(sql, pstmt);
+                if (old != null) {
+                    // 같은 SQL 을 동시에 두 개 사용한 경우, 먼저 있던 것을 닫는다.
+                    evictions.increment();
+                    JdbcUtils.closeStatement(old);
+                }
+            }
+        } catch (SQLException e) {
+            log.info("error", e);
+            JdbcUtils.closeStatement(pstmt);
+        }
+    }
+
+    /**
+     * 커넥션(대여한 커넥션이나 물리 커넥션)에 캐시된 statement 를 모두 닫고 캐시에서 제거한다.
+     */
+    public void invalidate(Connection con) {
+        Connection physical;
+        try {
+            physical = physical(con);
+        } catch (SQLException e) {
+            log.info("error", e);
+            return;
+        }
+        Statements statements = caches.remove(physical);
+        if (statements != null) {
+            invalidations.increment();
+            statements.closeAll();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * 캐시를 가지고 있는 물리 커넥션 수
+     */
+    public int getConnectionCount() {
+        return caches.size();
+    }
+
+    private Connection observe(Connection physical) {
+        InvalidateOnClose listener = new InvalidateOnClose();
+        listener.con = ObservedConnection.observe(physical, listener);
+        return listener.con;
+    }
+
+    private static Connection physical(Connection con) throws SQLException {
+        // 스프링 프록시(ObservedConnection, LazyConnectionDataSourceProxy 등)를 벗긴 뒤 풀 프록시를 unwrap 한다.
+        // 풀 프록시는 풀이 받은 커넥션을, 드라이버 커넥션은 자기 자신을 반환한다.
+        // 풀이 받은 커넥션이 invalidateOnClose 의 ObservedConnection 이면 한 번 더 벗겨서 드라이버 커넥션을 키로 쓴다.
+        Connection pooled = DataSourceUtils.getTargetConnection(con).unwrap(Connection.class);
+        return DataSourceUtils.getTargetConnection(pooled);
+    }
+
+    private Statements statementsOf(Connection physical) throws SQLException {
+        Statements statements = caches.get(physical);
+        if (statements != null) {
+            return statements;
+        }
+        // 처음 보는 물리 커넥션. invalidateOnClose 없이 닫힌 커넥션의 캐시가 남아 있으면 함께 정리한다.
+        purgeClosed();
+        return caches.computeIfAbsent(physical, key -> new Statements());
+    }
+
+    private void purgeClosed() throws SQLException {
+        Iterator<Map.Entry<Connection, Statements>> it = caches.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Connection, Statements> entry = it.next();
+            if (entry.getKey().isClosed()) {
+                it.remove();
+                invalidations.increment();
+                entry.getValue().closeAll();
+            }
+        }
+    }
+
+    private class Statements {
+        // access-order LinkedHashMap 으로 LRU 를 구현한다.
+        private final LinkedHashMap<String, PreparedStatement> idle = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > maxStatementsPerConnection) {
+                    evictions.increment();
+                    JdbcUtils.closeStatement(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        private final Map<PreparedStatement, String> inUse = new IdentityHashMap<>();
+
+        synchronized void closeAll() {
+            for (PreparedStatement pstmt : idle.values()) {
+                JdbcUtils.closeStatement(pstmt);
+            }
+            idle.clear();
+        }
+    }
+
+    private class InvalidateOnClose implements ObservedConnection.Listener {
+
+        private Connection con;
+
+        @Override
+        public void closed() {
+            // 물리 커넥션을 닫기 직전에 호출된다.
+            invalidate(con);
+        }
+    }
+}
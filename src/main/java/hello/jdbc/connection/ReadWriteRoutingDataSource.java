@@ -0,0 +1,245 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 읽기/쓰기 라우팅 DataSource
+ * 읽기 전용 트랜잭션과 트랜잭션 밖의 읽기(Route.REPLICA 힌트)는 복제본으로, 나머지는 모두 primary 로 보낸다.
+ * 정상인 복제본이 없으면 primary 로 보낸다.
+ *
+ * 트랜잭션 매니저는 readOnly 플래그를 설정하기 전에 커넥션을 먼저 얻으므로,
+ * 반드시 lazyConnectionProxy() 로 감싸서 트랜잭션 매니저와 저장소에 넘겨야 첫 SQL 시점에 라우팅된다.
+ */
+@Slf4j
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource implements AutoCloseable {
+
+    public enum Route {
+        PRIMARY,
+        REPLICA
+    }
+
+    public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS = 5000;
+    private static final String PRIMARY_KEY = "primary";
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+    // 트랜잭션 밖의 호출이 어디로 갈지 정하는 힌트. 트랜잭션 안에서는 PRIMARY 만 의미가 있다.
+    private static final ThreadLocal<Route> ROUTE_HINT = new ThreadLocal<>();
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ReplicaSelection selection;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    private final LongAdder primaryRoutes = new LongAdder();
+    private final LongAdder replicaRoutes = new LongAdder();
+    private final Thread healthChecker;
+    private volatile boolean running = true;
+
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas) {
+        this(primary, replicas, ReplicaSelection.ROUND_ROBIN, DEFAULT_HEALTH_CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param healthCheckIntervalMillis 0 이면 백그라운드 상태 확인을 하지 않는다. checkReplicas() 를 직접 호출한다.
+     */
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas, ReplicaSelection selection,
+                                      long healthCheckIntervalMillis) {
+        this.selection = selection;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY_KEY, primary);
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = new Replica(replicas.get(i), i);
+            this.replicas.add(replica);
+            targets.put(i, replica);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+
+        if (healthCheckIntervalMillis > 0 && !replicas.isEmpty()) {
+            this.healthChecker = new Thread(() -> {
+                while (running) {
+                    try {
+                        Thread.sleep(healthCheckIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    checkReplicas();
+                }
+            }, "replica-health-checker");
+            this.healthChecker.setDaemon(true);
+            this.healthChecker.start();
+        } else {
+            this.healthChecker = null;
+        }
+    }
+
+    /**
+     * 트랜잭션 매니저와 저장소에 넘길 DataSource. 실제 커넥션은 첫 SQL 을 실행할 때 라우팅해서 얻는다.
+     */
+    public DataSource lazyConnectionProxy() {
+        return new LazyConnectionDataSourceProxy(this);
+    }
+
+    /**
+     * 현재 스레드의 라우팅 힌트를 바꾸고 이전 힌트를 반환한다. finally 에서 이전 힌트로 되돌려야 한다.
+     */
+    public static Route bindRoute(Route route) {
+        Route previous = ROUTE_HINT.get();
+        if (route == null) {
+            ROUTE_HINT.remove();
+        } else {
+            ROUTE_HINT.set(route);
+        }
+        return previous;
+    }
+
+    public static Route currentRoute() {
+        return ROUTE_HINT.get();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (isReadRoute()) {
+            Replica replica = selectReplica();
+            if (replica != null) {
+                replicaRoutes.increment();
+                return replica.index;
+            }
+        }
+        primaryRoutes.increment();
+        return PRIMARY_KEY;
+    }
+
+    private static boolean isReadRoute() {
+        Route hint = ROUTE_HINT.get();
+        if (hint == Route.PRIMARY) {
+            return false;
+        }
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        }
+        return hint == Route.REPLICA;
+    }
+
+    private Replica selectReplica() {
+        int size = replicas.size();
+        if (size == 0) {
+            return null;
+        }
+        if (selection == ReplicaSelection.LEAST_LOADED) {
+            Replica selected = null;
+            for (Replica replica : replicas) {
+                if (replica.healthy && (selected == null || replica.active.get() < selected.active.get())) {
+                    selected = replica;
+                }
+            }
+            return selected;
+        }
+        int start = Math.floorMod(nextReplica.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 모든 복제본에 커넥션을 얻어 isValid 로 확인하고 상태를 갱신한다.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            replica.setHealthy(replica.isValid());
+        }
+    }
+
+    public int getHealthyReplicaCount() {
+        int count = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public long getPrimaryRouteCount() {
+        return primaryRoutes.sum();
+    }
+
+    public long getReplicaRouteCount() {
+        return replicaRoutes.sum();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        if (healthChecker != null) {
+            healthChecker.interrupt();
+            healthChecker.join();
+        }
+    }
+
+    /**
+     * 복제본 하나. 상태와 빌려준 커넥션 수를 관리한다.
+     */
+    private static class Replica extends DelegatingDataSource {
+
+        private final int index;
+        private final AtomicInteger active = new AtomicInteger();
+        private volatile boolean healthy = true;
+
+        Replica(DataSource targetDataSource, int index) {
+            super(targetDataSource);
+            this.index = index;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection target;
+            try {
+                target = obtainTargetDataSource().getConnection();
+            } catch (SQLException e) {
+                // 다음 상태 확인에서 살아나면 다시 사용한다.
+                setHealthy(false);
+                throw e;
+            }
+            active.incrementAndGet();
+            return ObservedConnection.observe(target, active::decrementAndGet);
+        }
+
+        boolean isValid() {
+            try (Connection con = obtainTargetDataSource().getConnection()) {
+                return con.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void setHealthy(boolean healthy) {
+            if (this.healthy != healthy) {
+                this.healthy = healthy;
+                if (healthy) {
+                    log.info("replica recovered index={}", index);
+                } else {
+                    log.warn("replica unhealthy index={}", index);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package hello.jdbc.connection;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 회원별 최근 쓰기 시각
+ * 복제본은 primary 보다 늦게 반영되므로, 쓰기 후 window 동안은 그 회원을 primary 에서 읽어야 방금 쓴 값이 보인다.
+ */
+public class ReadYourWritesWindow {
+
+    // 만료된 항목은 맵이 이 크기를 넘을 때 한꺼번에 지운다.
+    private static final int PURGE_THRESHOLD = 10_000;
+
+    private final long windowNanos;
+    // memberId -> window 가 끝나는 시각(nanoTime)
+    private final ConcurrentHashMap<String, Long> expiries = new ConcurrentHashMap<>();
+
+    public ReadYourWritesWindow(long windowMillis) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+    }
+
+    public void recordWrite(String memberId) {
+        expiries.put(memberId, System.nanoTime() + windowNanos);
+        if (expiries.size() > PURGE_THRESHOLD) {
+            purge();
+        }
+    }
+
+    public boolean isRecentlyWritten(String memberId) {
+        Long expiry = expiries.get(memberId);
+        if (expiry == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiry < 0) {
+            return true;
+        }
+        expiries.remove(memberId, expiry);
+        return false;
+    }
+
+    private void purge() {
+        long now = System.nanoTime();
+        expiries.values().removeIf(expiry -> now - expiry >= 0);
+    }
+}
@@ -0,0 +1,118 @@
+package hello.jdbc.connection;
+
+import hello.jdbc.connection.ReadWriteRoutingDataSource.Route;
+import hello.jdbc.domain.Member;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 저장소 호출에 ReadWriteRoutingDataSource 라우팅 힌트를 붙이는 AOP 어드바이스
+ * - find*, stream* 메서드는 복제본에서 읽는다. 단, *ForUpdate 는 락을 잡아야 하므로 primary 로 보낸다.
+ * - 인자의 회원이 ReadYourWritesWindow 안에 있으면 방금 쓴 값을 읽도록 primary 로 보낸다.
+ * - 나머지 메서드는 쓰기로 보고, 인자의 회원을 커밋 후(트랜잭션 밖이면 바로) window 에 기록한다.
+ * 트랜잭션 안에서는 트랜잭션의 readOnly 가 우선하고, primary 힌트만 적용된다.
+ */
+public class ReplicaRoutingInterceptor implements MethodInterceptor {
+
+    private final ReadYourWritesWindow window;
+
+    public ReplicaRoutingInterceptor(ReadYourWritesWindow window) {
+        this.window = window;
+    }
+
+    /**
+     * target 의 모든 public 메서드에 라우팅 힌트를 붙이는 CGLIB 프록시를 만든다.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T instrument(T target, ReadYourWritesWindow window) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new ReplicaRoutingInterceptor(window));
+        return (T) proxyFactory.getProxy();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        String name = invocation.getMethod().getName();
+        if (name.endsWith("ForUpdate")) {
+            return invocation.proceed();
+        }
+        if (name.startsWith("find") || name.startsWith("stream")) {
+            return read(invocation);
+        }
+        try {
+            return invocation.proceed();
+        } finally {
+            // 실패해도 일부는 반영되었을 수 있으므로 기록한다.
+            recordWrites(memberIds(invocation.getArguments()));
+        }
+    }
+
+    private Object read(MethodInvocation invocation) throws Throwable {
+        Route route = Route.REPLICA;
+        if (ReadWriteRoutingDataSource.currentRoute() == Route.PRIMARY) {
+            route = Route.PRIMARY;
+        } else {
+            for (String memberId : memberIds(invocation.getArguments())) {
+                if (window.isRecentlyWritten(memberId)) {
+                    route = Route.PRIMARY;
+                    break;
+                }
+            }
+        }
+        Route previous = ReadWriteRoutingDataSource.bindRoute(route);
+        try {
+            return invocation.proceed();
+        } finally {
+            ReadWriteRoutingDataSource.bindRoute(previous);
+        }
+    }
+
+    private void recordWrites(List<String> memberIds) {
+        if (memberIds.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 커밋 전에는 다른 트랜잭션에 보이지 않으므로 window 는 커밋 시점부터 센다.
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    memberIds.forEach(window::recordWrite);
+                }
+            });
+        } else {
+            memberIds.forEach(window::recordWrite);
+        }
+    }
+
+    private static List<String> memberIds(Object[] args) {
+        List<String> memberIds = new ArrayList<>();
+        for (Object arg : args) {
+            addMemberIds(memberIds, arg);
+        }
+        return memberIds;
+    }
+
+    private static void addMemberIds(List<String> memberIds, Object arg) {
+        if (arg instanceof String) {
+            memberIds.add((String) arg);
+        } else if (arg instanceof Member) {
+            memberIds.add(((Member) arg).getMemberId());
+        } else if (arg instanceof Collection) {
+            for (Object element : (Collection<?>) arg) {
+                addMemberIds(memberIds, element);
+            }
+        } else if (arg instanceof Map) {
+            addMemberIds(memberIds, ((Map<?, ?>) arg).keySet());
+        }
+        // Iterator 인자는 이미 소비되었으므로 기록하지 않는다.
+    }
+}
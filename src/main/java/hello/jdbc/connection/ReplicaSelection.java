@@ -0,0 +1,11 @@
+package hello.jdbc.connection;
+
+/**
+ * 읽기 요청을 보낼 복제본을 고르는 방식
+ */
+public enum ReplicaSelection {
+    // 정상인 복제본을 순서대로 돌아가며 사용한다.
+    ROUND_ROBIN,
+    // 정상인 복제본 중 빌려준 커넥션이 가장 적은 복제본을 사용한다.
+    LEAST_LOADED
+}
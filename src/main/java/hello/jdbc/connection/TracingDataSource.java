@@ -0,0 +1,42 @@
+package hello.jdbc.connection;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 커넥션 대여와 반납(close) 을 ConnectionTracer 에 기록하는 DataSource
+ * ObservedConnection 으로 감싸서 close 시점에 보유 시간을 계산한다.
+ */
+public class TracingDataSource extends DelegatingDataSource {
+
+    private final ConnectionTracer tracer;
+    private final AtomicLong borrowIds = new AtomicLong();
+
+    public TracingDataSource(DataSource targetDataSource, ConnectionTracer tracer) {
+        super(targetDataSource);
+        this.tracer = tracer;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return trace(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return trace(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    private Connection trace(Connection target) {
+        long borrowId = borrowIds.incrementAndGet();
+        boolean sampled = tracer.sample();
+        tracer.borrowed(borrowId, sampled);
+        long borrowNanos = System.nanoTime();
+        return ObservedConnection.observe(target,
+                () -> tracer.returned(borrowId, System.nanoTime() - borrowNanos, sampled));
+    }
+}
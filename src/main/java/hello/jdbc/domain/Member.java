@@ -7,6 +7,8 @@ public class Member {
 
     private String memberId;
     private int money;
+    // 낙관적 락 버전. member 테이블에 version 컬럼이 없으면 항상 0 이다.
+    private long version;
 
     public Member() {
     }
@@ -15,4 +17,10 @@ public class Member {
         this.memberId = memberId;
         this.money = money;
     }
+
+    public Member(String memberId, int money, long version) {
+        this.memberId = memberId;
+        this.money = money;
+        this.version = version;
+    }
 }
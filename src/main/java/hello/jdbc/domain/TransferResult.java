@@ -0,0 +1,22 @@
+package hello.jdbc.domain;
+
+import lombok.Data;
+
+/**
+ * 이체 한 건의 처리 결과. 실패하면 failureReason 에 이유가 담긴다.
+ */
+@Data
+public class TransferResult {
+
+    private final Transfer transfer;
+    private final boolean success;
+    private final String failureReason;
+
+    public static TransferResult success(Transfer transfer) {
+        return new TransferResult(transfer, true, null);
+    }
+
+    public static TransferResult failure(Transfer transfer, String failureReason) {
+        return new TransferResult(transfer, false, failureReason);
+    }
+}
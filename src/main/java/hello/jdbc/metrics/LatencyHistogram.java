@@ -0,0 +1,126 @@
+package hello.jdbc.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 지연 시간 히스토그램 (HdrHistogram 과 같은 로그-선형 버킷)
+ * 값의 최상위 비트로 구간을 나누고, 구간마다 16개의 하위 버킷을 두어 상대 오차를 약 6% 이내로 유지한다.
+ * record 는 배열 원소 증가만 하므로 객체를 할당하지 않고 락도 없다.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalSum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value 음수는 0 으로 기록한다. 단위는 호출하는 쪽에서 정한다. (보통 ns)
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalSum.add(value);
+        max.accumulate(value);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalSum.reset();
+        max.reset();
+    }
+
+    /**
+     * 현재 값을 복사한다. 기록과 동시에 호출하면 버킷 사이에 약간의 차이가 있을 수 있다.
+     * 전체 개수는 기록할 때 따로 세지 않고 버킷을 합해서 구한다.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalSum.sum(), max.get());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param percentile 0 ~ 100
+         * @return 해당 백분위가 속한 버킷의 상한. max 보다 크지 않다.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + (long) getMean()
+                    + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99)
+                    + ", p99.9=" + getValueAtPercentile(99.9) + ", max=" + max;
+        }
+    }
+}
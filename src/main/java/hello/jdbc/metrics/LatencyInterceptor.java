@@ -0,0 +1,56 @@
+package hello.jdbc.metrics;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 메서드별 지연 시간과 예외를 OperationMetrics 에 기록하는 AOP 어드바이스
+ * MemberService 처럼 인터페이스가 없는 클래스에 사용한다. 작업 이름은 "클래스.메서드" 이다.
+ */
+public class LatencyInterceptor implements MethodInterceptor {
+
+    private final OperationMetrics metrics;
+    private final ConcurrentHashMap<Method, OperationStats> statsByMethod = new ConcurrentHashMap<>();
+
+    public LatencyInterceptor(OperationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * target 의 모든 public 메서드를 기록하는 CGLIB 프록시를 만든다.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T instrument(T target, OperationMetrics metrics) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new LatencyInterceptor(metrics));
+        return (T) proxyFactory.getProxy();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        OperationStats stats = statsOf(invocation.getMethod());
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } catch (Throwable e) {
+            stats.recordError(e);
+            throw e;
+        } finally {
+            stats.record(System.nanoTime() - start);
+        }
+    }
+
+    private OperationStats statsOf(Method method) {
+        OperationStats stats = statsByMethod.get(method);
+        if (stats == null) {
+            stats = statsByMethod.computeIfAbsent(method,
+                    m -> metrics.stats(m.getDeclaringClass().getSimpleName() + "." + m.getName()));
+        }
+        return stats;
+    }
+}
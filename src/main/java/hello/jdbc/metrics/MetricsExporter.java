@@ -0,0 +1,11 @@
+package hello.jdbc.metrics;
+
+/**
+ * OperationMetrics 의 스냅샷을 외부 모니터링 시스템으로 내보낸다.
+ * Micrometer 같은 라이브러리는 이 인터페이스를 구현해서 연결한다.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+    void export(OperationSnapshot snapshot);
+}
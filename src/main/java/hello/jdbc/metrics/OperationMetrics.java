@@ -0,0 +1,41 @@
+package hello.jdbc.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 작업 이름별 OperationStats 저장소
+ * 기록하는 쪽은 stats(name) 으로 받은 객체를 필드에 보관해두고 사용하면 조회 비용도 없다.
+ */
+public class OperationMetrics {
+
+    private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+
+    public OperationStats stats(String name) {
+        OperationStats stats = operations.get(name);
+        if (stats == null) {
+            stats = operations.computeIfAbsent(name, OperationStats::new);
+        }
+        return stats;
+    }
+
+    public List<OperationSnapshot> snapshot() {
+        List<OperationSnapshot> snapshots = new ArrayList<>(operations.size());
+        for (OperationStats stats : operations.values()) {
+            snapshots.add(stats.snapshot());
+        }
+        snapshots.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return snapshots;
+    }
+
+    public void exportTo(MetricsExporter exporter) {
+        for (OperationSnapshot snapshot : snapshot()) {
+            exporter.export(snapshot);
+        }
+    }
+
+    public void reset() {
+        operations.values().forEach(OperationStats::reset);
+    }
+}
@@ -0,0 +1,28 @@
+package hello.jdbc.metrics;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Map;
+
+/**
+ * OperationStats 의 특정 시점 값
+ */
+@Getter
+@ToString
+public class OperationSnapshot {
+
+    private final String name;
+    // 단위 ns
+    private final LatencyHistogram.Snapshot latency;
+    private final long rows;
+    // 예외 클래스 이름 -> 횟수
+    private final Map<String, Long> errors;
+
+    public OperationSnapshot(String name, LatencyHistogram.Snapshot latency, long rows, Map<String, Long> errors) {
+        this.name = name;
+        this.latency = latency;
+        this.rows = rows;
+        this.errors = errors;
+    }
+}
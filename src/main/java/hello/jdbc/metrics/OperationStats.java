@@ -0,0 +1,54 @@
+package hello.jdbc.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 한 작업의 지연 시간(ns), 처리한 행 수, 예외 타입별 횟수
+ * 예외 타입별 카운터는 처음 한 번만 만들고, 이후 기록은 객체를 할당하지 않는다.
+ */
+public class OperationStats {
+
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder rows = new LongAdder();
+    private final ConcurrentHashMap<Class<?>, LongAdder> errors = new ConcurrentHashMap<>();
+
+    public OperationStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        latency.record(nanos);
+    }
+
+    public void addRows(long count) {
+        rows.add(count);
+    }
+
+    public void recordError(Throwable e) {
+        LongAdder counter = errors.get(e.getClass());
+        if (counter == null) {
+            counter = errors.computeIfAbsent(e.getClass(), type -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public OperationSnapshot snapshot() {
+        Map<String, Long> errorCounts = new LinkedHashMap<>();
+        errors.forEach((type, count) -> errorCounts.put(type.getSimpleName(), count.sum()));
+        return new OperationSnapshot(name, latency.snapshot(), rows.sum(), errorCounts);
+    }
+
+    public void reset() {
+        latency.reset();
+        rows.reset();
+        errors.clear();
+    }
+}
@@ -0,0 +1,265 @@
+package hello.jdbc.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import hello.jdbc.domain.Member;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * findById 읽기 캐시
+ * Caffeine(W-TinyLFU) 로 사용 빈도 기반 제거를 한다.
+ * 트랜잭션 안에서 변경한 회원은 커밋된 이후에만 캐시에서 제거하고, 그 전까지는 캐시를 우회한다.
+ * 롤백된 트랜잭션의 값이 캐시에 남지 않는다.
+ */
+@Slf4j
+public class CachingMemberRepository implements MemberRepository {
+
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 10 * 1024 * 1024;
+
+    private final MemberRepository target;
+    private final Cache<String, Member> cache;
+
+    public CachingMemberRepository(MemberRepository target) {
+        this(target, DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * @param maximumWeight 캐시 항목의 대략적인 메모리 크기(byte) 합계 상한
+     */
+    public CachingMemberRepository(MemberRepository target, long maximumWeight) {
+        this.target = target;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String memberId, Member member) -> weigh(memberId))
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public Member save(Member member) {
+        return target.save(member);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        // 현재 트랜잭션에서 변경한 회원은 커밋 전 값이므로 캐시에 넣지 않는다.
+        if (isDirtyInTransaction(memberId)) {
+            return target.findById(memberId);
+        }
+        // 로딩 중에 invalidate 가 들어오면 로딩이 끝난 뒤 제거되므로 오래된 값이 남지 않는다.
+        Member cached = cache.get(memberId, target::findById);
+        return copy(cached);
+    }
+
+    @Override
+    public MemberLookup findAllById(Collection<String> memberIds) {
+        Set<String> cacheable = new LinkedHashSet<>();
+        Set<String> dirty = new HashSet<>();
+        for (String memberId : memberIds) {
+            (isDirtyInTransaction(memberId) ? dirty : cacheable).add(memberId);
+        }
+        Map<String, Member> found = new HashMap<>();
+        // 캐시에 없는 회원만 모아서 target 에 한 번에 조회한다.
+        cache.getAll(cacheable, missing -> {
+            List<String> ids = new ArrayList<>();
+            missing.forEach(ids::add);
+            return target.findAllById(ids).getMembers();
+        }).forEach((memberId, member) -> found.put(memberId, copy(member)));
+        if (!dirty.isEmpty()) {
+            found.putAll(target.findAllById(dirty).getMembers());
+        }
+        return MemberLookup.of(memberIds, found);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        target.update(memberId, money);
+        invalidateAfterCommit(memberId);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        target.delete(memberId);
+        invalidateAfterCommit(memberId);
+    }
+
+    @Override
+    public boolean compareAndUpdate(String memberId, long expectedVersion, int newMoney) {
+        boolean updated = target.compareAndUpdate(memberId, expectedVersion, newMoney);
+        // 실패했다면 캐시의 version 이 오래된 것이므로 바로 지워서 재시도가 최신 값을 읽게 한다.
+        if (updated) {
+            invalidateAfterCommit(memberId);
+        } else if (!isDirtyInTransaction(memberId)) {
+            cache.invalidate(memberId);
+        }
+        return updated;
+    }
+
+    @Override
+    public int[] saveAll(Collection<Member> members) {
+        return target.saveAll(members);
+    }
+
+    @Override
+    public int[] saveAll(Iterator<Member> members) {
+        return target.saveAll(members);
+    }
+
+    @Override
+    public boolean upsert(Member member) {
+        boolean inserted = target.upsert(member);
+        invalidateAfterCommit(member.getMemberId());
+        return inserted;
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        // 기존 회원은 바뀌지 않으므로 캐시를 지울 필요가 없다.
+        return target.insertIfAbsent(member);
+    }
+
+    @Override
+    public int[] insertAllIfAbsent(Collection<Member> members) {
+        return target.insertAllIfAbsent(members);
+    }
+
+    @Override
+    public void transfer(String fromId, String toId, int amount) {
+        target.transfer(fromId, toId, amount);
+        invalidateAfterCommit(fromId);
+        invalidateAfterCommit(toId);
+    }
+
+    @Override
+    public List<Member> findForUpdate(String memberId1, String memberId2) {
+        // 잠금 조회는 항상 DB 에서 최신 값을 읽는다.
+        return target.findForUpdate(memberId1, memberId2);
+    }
+
+    @Override
+    public List<Member> findAllForUpdate(Collection<String> memberIds) {
+        return target.findAllForUpdate(memberIds);
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltas) {
+        int[] counts = target.addMoneyAll(deltas);
+        for (String memberId : deltas.keySet()) {
+            invalidateAfterCommit(memberId);
+        }
+        return counts;
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneys) {
+        int[] counts = target.updateAll(moneys);
+        for (String memberId : moneys.keySet()) {
+            invalidateAfterCommit(memberId);
+        }
+        return counts;
+    }
+
+    @Override
+    public Stream<Member> streamAll(int fetchSize) {
+        // 전체 스캔은 캐시를 거치지 않고, 캐시에 적재하지도 않는다.
+        return target.streamAll(fetchSize);
+    }
+
+    @Override
+    public Stream<Member> streamByMinMoney(int minMoney, int fetchSize) {
+        return target.streamByMinMoney(minMoney, fetchSize);
+    }
+
+    @Override
+    public MemberPage findPageAfter(String lastMemberId, int limit) {
+        return target.findPageAfter(lastMemberId, limit);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public double getHitRatio() {
+        return cache.stats().hitRate();
+    }
+
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    /**
+     * 평균 로딩 시간(ns)
+     */
+    public double getAverageLoadPenalty() {
+        return cache.stats().averageLoadPenalty();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    private void invalidateAfterCommit(String memberId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            // 트랜잭션이 없으면 이미 커밋된 변경이다.
+            cache.invalidate(memberId);
+            return;
+        }
+        dirtyMembers().add(memberId);
+    }
+
+    private boolean isDirtyInTransaction(String memberId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return false;
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> dirty = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        return dirty != null && dirty.contains(memberId);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<String> dirtyMembers() {
+        // 트랜잭션마다 변경한 회원 목록을 이 캐시를 키로 바인딩한다.
+        Set<String> dirty = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (dirty == null) {
+            Set<String> members = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, members);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cache.invalidateAll(members);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CachingMemberRepository.this);
+                }
+            });
+            dirty = members;
+        }
+        return dirty;
+    }
+
+    private static int weigh(String memberId) {
+        // Member 객체 헤더와 필드, String 과 문자 배열의 대략적인 크기
+        return 64 + memberId.length();
+    }
+
+    private static Member copy(Member member) {
+        // Member 는 변경 가능한 객체라서 캐시 항목을 그대로 내보내지 않는다.
+        return new Member(member.getMemberId(), member.getMoney(), member.getVersion());
+    }
+}
@@ -0,0 +1,66 @@
+package hello.jdbc.repository;
+
+import java.util.Arrays;
+
+/**
+ * 일관된 해시 링
+ * 샤드마다 virtualNodes 개의 점을 링 위에 두고, 키의 해시에서 시계 방향으로 처음 만나는 점의 샤드를 고른다.
+ * 샤드를 하나 늘려도 약 1/N 의 키만 옮겨진다.
+ * 점은 정렬된 int 배열에 두고 이진 탐색한다.
+ */
+public class ConsistentHashRing {
+
+    private final int[] points;
+    private final int[] owners;
+
+    public ConsistentHashRing(int shardCount, int virtualNodes) {
+        if (shardCount < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("shardCount and virtualNodes must be positive: " + shardCount + ", " + virtualNodes);
+        }
+        long[] entries = new long[shardCount * virtualNodes];
+        int i = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                int point = hash("shard-" + shard + "#" + node);
+                // 상위 32비트에 점, 하위 32비트에 샤드 번호를 넣어서 한 번에 정렬한다.
+                entries[i++] = ((long) point << 32) | shard;
+            }
+        }
+        Arrays.sort(entries);
+        this.points = new int[entries.length];
+        this.owners = new int[entries.length];
+        for (i = 0; i < entries.length; i++) {
+            points[i] = (int) (entries[i] >> 32);
+            owners[i] = (int) entries[i];
+        }
+    }
+
+    public int shardOf(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return owners[index];
+    }
+
+    /**
+     * 문자 단위 FNV-1a 32비트. String.hashCode 는 "member1", "member2" 처럼 끝만 다른 키가 링 위에서 몰린다.
+     */
+    static int hash(String key) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x01000193;
+        }
+        // 마지막 문자의 영향이 상위 비트까지 퍼지도록 섞는다. (murmur3 fmix32)
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
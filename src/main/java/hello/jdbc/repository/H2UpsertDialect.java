@@ -0,0 +1,27 @@
+package hello.jdbc.repository;
+
+/**
+ * H2 MERGE 를 사용한다.
+ * OLD TABLE 은 merge 전의 행을 돌려주므로, 행이 없었으면 insert 된 것이다.
+ */
+public class H2UpsertDialect implements UpsertDialect {
+
+    private static final String SOURCE = "(values (cast(? as varchar(10)), cast(? as integer))) s(member_id, money)";
+
+    @Override
+    public String insertIfAbsentSql() {
+        return "merge into member t using " + SOURCE + " on t.member_id = s.member_id" +
+                " when not matched then insert (member_id, money) values (s.member_id, s.money)";
+    }
+
+    @Override
+    public String upsertSql(boolean versioned) {
+        if (!versioned) {
+            return "select count(*) = 0 from old table (merge into member(member_id, money) key(member_id) values(?, ?))";
+        }
+        // merge ... key 는 version 을 올릴 수 없어서 merge using 을 사용한다.
+        return "select count(*) = 0 from old table (merge into member t using " + SOURCE + " on t.member_id = s.member_id" +
+                " when matched then update set money = s.money, version = t.version + 1" +
+                " when not matched then insert (member_id, money) values (s.member_id, s.money))";
+    }
+}
@@ -0,0 +1,145 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.repository.ex.MyDbExceptionTranslator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * hi/lo 방식 id 생성기
+ * 시퀀스를 increment by blockSize 로 만들고, 값 하나를 받아오면 [값, 값 + blockSize) 구간을 메모리에서 나눠준다.
+ * 시퀀스 값은 노드마다 다르므로 같은 데이터베이스를 쓰는 여러 노드가 만든 id 도 겹치지 않는다.
+ * blockSize 는 시퀀스의 increment 로 저장되므로, 같은 시퀀스를 다른 blockSize 로 사용하면 처음 블록을 받을 때 거부한다.
+ * 블록 하나당 데이터베이스 왕복은 한 번이고, 블록 안에서는 락 없이 발급한다.
+ */
+@Slf4j
+public class HiLoIdGenerator {
+
+    public static final String DEFAULT_SEQUENCE = "member_id_seq";
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    // member_id 는 varchar(10) 이다.
+    private static final int MAX_MEMBER_ID_LENGTH = 10;
+
+    private final DataSource dataSource;
+    private final String sequenceName;
+    private final int blockSize;
+    private final String prefix;
+
+    private volatile Block block = new Block(0, 0);
+    private boolean sequenceChecked;
+    private final LongAdder fetchedBlocks = new LongAdder();
+
+    public HiLoIdGenerator(DataSource dataSource) {
+        this(dataSource, DEFAULT_SEQUENCE, DEFAULT_BLOCK_SIZE, "m");
+    }
+
+    /**
+     * @param sequenceName SQL 에 그대로 들어가므로 외부 입력을 넘기면 안 된다.
+     * @param prefix nextMemberId 의 접두사
+     */
+    public HiLoIdGenerator(DataSource dataSource, String sequenceName, int blockSize, String prefix) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.dataSource = dataSource;
+        this.sequenceName = sequenceName;
+        this.blockSize = blockSize;
+        this.prefix = prefix;
+    }
+
+    public long nextId() {
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id < current.end) {
+                return id;
+            }
+            // 블록을 다 쓴 스레드 중 하나만 새 블록을 받아오고, 나머지는 새 블록에서 다시 시도한다.
+            refill(current);
+        }
+    }
+
+    /**
+     * prefix + 36진수 id. 길이가 member_id 컬럼을 넘으면 IllegalStateException 이 발생한다.
+     */
+    public String nextMemberId() {
+        String memberId = prefix + Long.toString(nextId(), Character.MAX_RADIX);
+        if (memberId.length() > MAX_MEMBER_ID_LENGTH) {
+            throw new IllegalStateException("member id too long memberId=" + memberId);
+        }
+        return memberId;
+    }
+
+    /**
+     * 데이터베이스에서 받아온 블록 수 (= 데이터베이스 왕복 횟수)
+     */
+    public long getFetchedBlockCount() {
+        return fetchedBlocks.sum();
+    }
+
+    private synchronized void refill(Block exhausted) {
+        if (block != exhausted) {
+            // 다른 스레드가 이미 새 블록을 받아왔다.
+            return;
+        }
+        long start = nextBlockStart();
+        block = new Block(start, Math.addExact(start, (long) blockSize));
+        fetchedBlocks.increment();
+        log.debug("id block sequence={}, start={}, size={}", sequenceName, start, blockSize);
+    }
+
+    private long nextBlockStart() {
+        Connection con = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+
+        try {
+            // 시퀀스 값은 트랜잭션을 롤백해도 되돌아가지 않으므로 호출한 쪽 트랜잭션에 참여해도 안전하다.
+            con = DataSourceUtils.getConnection(dataSource);
+            stmt = con.createStatement();
+            if (!sequenceChecked) {
+                stmt.execute("create sequence if not exists " + sequenceName + " increment by " + blockSize);
+                checkBlockSize(stmt);
+                sequenceChecked = true;
+            }
+            rs = stmt.executeQuery("select next value for " + sequenceName);
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            throw MyDbExceptionTranslator.H2.translate(e);
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            JdbcUtils.closeStatement(stmt);
+            DataSourceUtils.releaseConnection(con, dataSource);
+        }
+    }
+
+    private void checkBlockSize(Statement stmt) throws SQLException {
+        // 이미 있던 시퀀스는 다른 blockSize 로 만들어졌을 수 있다. 섞어 쓰면 블록이 겹친다.
+        try (ResultSet rs = stmt.executeQuery("select * from information_schema.sequences " +
+                "where upper(sequence_name) = '" + sequenceName.toUpperCase() + "'")) {
+            if (rs.next() && rs.getLong("increment") != blockSize) {
+                throw new IllegalStateException("sequence " + sequenceName + " uses block size " + rs.getLong("increment")
+                        + ", not " + blockSize);
+            }
+        }
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.metrics.OperationMetrics;
+import hello.jdbc.metrics.OperationStats;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * MemberRepository 지연 시간 측정 데코레이터
+ * 메서드별로 지연 시간(ns), 처리한 행 수, 예외 타입별 횟수를 OperationMetrics 에 "MemberRepository.메서드" 이름으로 기록한다.
+ * 람다나 배열을 만들지 않도록 메서드마다 직접 측정한다.
+ * 스트림 메서드는 커서를 여는 시간까지만 측정한다.
+ */
+public class InstrumentedMemberRepository implements MemberRepository {
+
+    private final MemberRepository target;
+
+    private final OperationStats save;
+    private final OperationStats findById;
+    private final OperationStats findAllById;
+    private final OperationStats update;
+    private final OperationStats delete;
+    private final OperationStats compareAndUpdate;
+    private final OperationStats saveAll;
+    private final OperationStats upsert;
+    private final OperationStats insertIfAbsent;
+    private final OperationStats insertAllIfAbsent;
+    private final OperationStats transfer;
+    private final OperationStats findForUpdate;
+    private final OperationStats findAllForUpdate;
+    private final OperationStats addMoneyAll;
+    private final OperationStats updateAll;
+    private final OperationStats streamAll;
+    private final OperationStats streamByMinMoney;
+    private final OperationStats findPageAfter;
+
+    public InstrumentedMemberRepository(MemberRepository target, OperationMetrics metrics) {
+        this.target = target;
+        this.save = metrics.stats("MemberRepository.save");
+        this.findById = metrics.stats("MemberRepository.findById");
+        this.findAllById = metrics.stats("MemberRepository.findAllById");
+        this.update = metrics.stats("MemberRepository.update");
+        this.delete = metrics.stats("MemberRepository.delete");
+        this.compareAndUpdate = metrics.stats("MemberRepository.compareAndUpdate");
+        this.saveAll = metrics.stats("MemberRepository.saveAll");
+        this.upsert = metrics.stats("MemberRepository.upsert");
+        this.insertIfAbsent = metrics.stats("MemberRepository.insertIfAbsent");
+        this.insertAllIfAbsent = metrics.stats("MemberRepository.insertAllIfAbsent");
+        this.transfer = metrics.stats("MemberRepository.transfer");
+        this.findForUpdate = metrics.stats("MemberRepository.findForUpdate");
+        this.findAllForUpdate = metrics.stats("MemberRepository.findAllForUpdate");
+        this.addMoneyAll = metrics.stats("MemberRepository.addMoneyAll");
+        this.updateAll = metrics.stats("MemberRepository.updateAll");
+        this.streamAll = metrics.stats("MemberRepository.streamAll");
+        this.streamByMinMoney = metrics.stats("MemberRepository.streamByMinMoney");
+        this.findPageAfter = metrics.stats("MemberRepository.findPageAfter");
+    }
+
+    @Override
+    public Member save(Member member) {
+        long start = System.nanoTime();
+        try {
+            Member saved = target.save(member);
+            save.addRows(1);
+            return saved;
+        } catch (RuntimeException e) {
+            throw failed(save, e);
+        } finally {
+            save.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        long start = System.nanoTime();
+        try {
+            Member member = target.findById(memberId);
+            findById.addRows(1);
+            return member;
+        } catch (RuntimeException e) {
+            throw failed(findById, e);
+        } finally {
+            findById.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public MemberLookup findAllById(Collection<String> memberIds) {
+        long start = System.nanoTime();
+        try {
+            MemberLookup lookup = target.findAllById(memberIds);
+            findAllById.addRows(lookup.getMembers().size());
+            return lookup;
+        } catch (RuntimeException e) {
+            throw failed(findAllById, e);
+        } finally {
+            findAllById.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        long start = System.nanoTime();
+        try {
+            target.update(memberId, money);
+        } catch (RuntimeException e) {
+            throw failed(update, e);
+        } finally {
+            update.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void delete(String memberId) {
+        long start = System.nanoTime();
+        try {
+            target.delete(memberId);
+        } catch (RuntimeException e) {
+            throw failed(delete, e);
+        } finally {
+            delete.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean compareAndUpdate(String memberId, long expectedVersion, int newMoney) {
+        long start = System.nanoTime();
+        try {
+            boolean updated = target.compareAndUpdate(memberId, expectedVersion, newMoney);
+            compareAndUpdate.addRows(updated ? 1 : 0);
+            return updated;
+        } catch (RuntimeException e) {
+            throw failed(compareAndUpdate, e);
+        } finally {
+            compareAndUpdate.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] saveAll(Collection<Member> members) {
+        long start = System.nanoTime();
+        try {
+            return addRows(saveAll, target.saveAll(members));
+        } catch (RuntimeException e) {
+            throw failed(saveAll, e);
+        } finally {
+            saveAll.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] saveAll(Iterator<Member> members) {
+        long start = System.nanoTime();
+        try {
+            return addRows(saveAll, target.saveAll(members));
+        } catch (RuntimeException e) {
+            throw failed(saveAll, e);
+        } finally {
+            saveAll.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean upsert(Member member) {
+        long start = System.nanoTime();
+        try {
+            boolean inserted = target.upsert(member);
+            upsert.addRows(1);
+            return inserted;
+        } catch (RuntimeException e) {
+            throw failed(upsert, e);
+        } finally {
+            upsert.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        long start = System.nanoTime();
+        try {
+            boolean inserted = target.insertIfAbsent(member);
+            insertIfAbsent.addRows(inserted ? 1 : 0);
+            return inserted;
+        } catch (RuntimeException e) {
+            throw failed(insertIfAbsent, e);
+        } finally {
+            insertIfAbsent.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] insertAllIfAbsent(Collection<Member> members) {
+        long start = System.nanoTime();
+        try {
+            return addRows(insertAllIfAbsent, target.insertAllIfAbsent(members));
+        } catch (RuntimeException e) {
+            throw failed(insertAllIfAbsent, e);
+        } finally {
+            insertAllIfAbsent.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void transfer(String fromId, String toId, int amount) {
+        long start = System.nanoTime();
+        try {
+            target.transfer(fromId, toId, amount);
+            transfer.addRows(2);
+        } catch (RuntimeException e) {
+            throw failed(transfer, e);
+        } finally {
+            transfer.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Member> findForUpdate(String memberId1, String memberId2) {
+        long start = System.nanoTime();
+        try {
+            List<Member> members = target.findForUpdate(memberId1, memberId2);
+            findForUpdate.addRows(members.size());
+            return members;
+        } catch (RuntimeException e) {
+            throw failed(findForUpdate, e);
+        } finally {
+            findForUpdate.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Member> findAllForUpdate(Collection<String> memberIds) {
+        long start = System.nanoTime();
+        try {
+            List<Member> members = target.findAllForUpdate(memberIds);
+            findAllForUpdate.addRows(members.size());
+            return members;
+        } catch (RuntimeException e) {
+            throw failed(findAllForUpdate, e);
+        } finally {
+            findAllForUpdate.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltas) {
+        long start = System.nanoTime();
+        try {
+            return addRows(addMoneyAll, target.addMoneyAll(deltas));
+        } catch (RuntimeException e) {
+            throw failed(addMoneyAll, e);
+        } finally {
+            addMoneyAll.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneys) {
+        long start = System.nanoTime();
+        try {
+            return addRows(updateAll, target.updateAll(moneys));
+        } catch (RuntimeException e) {
+            throw failed(updateAll, e);
+        } finally {
+            updateAll.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll(int fetchSize) {
+        long start = System.nanoTime();
+        try {
+            return target.streamAll(fetchSize);
+        } catch (RuntimeException e) {
+            throw failed(streamAll, e);
+        } finally {
+            streamAll.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Stream<Member> streamByMinMoney(int minMoney, int fetchSize) {
+        long start = System.nanoTime();
+        try {
+            return target.streamByMinMoney(minMoney, fetchSize);
+        } catch (RuntimeException e) {
+            throw failed(streamByMinMoney, e);
+        } finally {
+            streamByMinMoney.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public MemberPage findPageAfter(String lastMemberId, int limit) {
+        long start = System.nanoTime();
+        try {
+            MemberPage page = target.findPageAfter(lastMemberId, limit);
+            findPageAfter.addRows(page.getMembers().size());
+            return page;
+        } catch (RuntimeException e) {
+            throw failed(findPageAfter, e);
+        } finally {
+            findPageAfter.record(System.nanoTime() - start);
+        }
+    }
+
+    private static RuntimeException failed(OperationStats stats, RuntimeException e) {
+        stats.recordError(e);
+        return e;
+    }
+
+    private static int[] addRows(OperationStats stats, int[] counts) {
+        long rows = 0;
+        for (int count : counts) {
+            // 드라이버가 건수를 모르면 SUCCESS_NO_INFO(-2) 를 반환한다.
+            if (count > 0) {
+                rows += count;
+            }
+        }
+        stats.addRows(rows);
+        return counts;
+    }
+}
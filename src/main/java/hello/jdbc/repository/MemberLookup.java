@@ -0,0 +1,50 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * findAllById 결과
+ * 찾은 회원은 memberId -> Member 로, 없는 회원은 예외 대신 missingIds 로 알려준다. 둘 다 요청한 순서이고 중복 id 는 한 번만 들어간다.
+ */
+@Getter
+@ToString
+public class MemberLookup {
+
+    private final Map<String, Member> members;
+    private final List<String> missingIds;
+
+    public MemberLookup(Map<String, Member> members, List<String> missingIds) {
+        this.members = members;
+        this.missingIds = missingIds;
+    }
+
+    /**
+     * 조회한 회원(found)을 요청한 순서(memberIds)로 정리한다.
+     */
+    public static MemberLookup of(Collection<String> memberIds, Map<String, Member> found) {
+        Map<String, Member> members = new LinkedHashMap<>();
+        List<String> missingIds = new ArrayList<>();
+        for (String memberId : new LinkedHashSet<>(memberIds)) {
+            Member member = found.get(memberId);
+            if (member != null) {
+                members.put(memberId, member);
+            } else {
+                missingIds.add(memberId);
+            }
+        }
+        return new MemberLookup(members, missingIds);
+    }
+
+    public boolean hasMissing() {
+        return !missingIds.isEmpty();
+    }
+}
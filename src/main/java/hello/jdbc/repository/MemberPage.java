@@ -0,0 +1,28 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * 키셋 페이지 조회 결과
+ * nextMemberId 를 다음 findPageAfter 호출에 그대로 넘기면 이어서 조회한다. 마지막 페이지면 null 이다.
+ */
+@Getter
+@ToString
+public class MemberPage {
+
+    private final List<Member> members;
+    private final String nextMemberId;
+
+    public MemberPage(List<Member> members, String nextMemberId) {
+        this.members = members;
+        this.nextMemberId = nextMemberId;
+    }
+
+    public boolean hasNext() {
+        return nextMemberId != null;
+    }
+}
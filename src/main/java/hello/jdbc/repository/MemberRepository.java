@@ -3,10 +3,59 @@ package hello.jdbc.repository;
 import hello.jdbc.domain.Member;
 
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 public interface MemberRepository {
     Member save(Member member);
     Member findById(String memberId);
     void update(String memberId, int money);
     void delete(String memberId);
+
+    // 여러 회원을 한 번에 조회한다. 중복 id 는 한 번만 조회하고, 없는 회원은 예외 대신 MemberLookup.missingIds 로 알려준다.
+    MemberLookup findAllById(Collection<String> memberIds);
+
+    // version 이 expectedVersion 일 때만 money 를 바꾼다. 다른 트랜잭션이 먼저 바꿨으면 false 를 반환한다.
+    boolean compareAndUpdate(String memberId, long expectedVersion, int newMoney);
+
+    // 하나의 커넥션과 PreparedStatement 로 JDBC 배치 insert 를 수행한다. 행 별 update count 를 반환한다.
+    int[] saveAll(Collection<Member> members);
+    int[] saveAll(Iterator<Member> members);
+
+    // 없으면 insert, 있으면 money 를 바꾼다. 중복 키 예외 없이 한 번의 SQL 로 처리한다. 새로 insert 했으면 true 를 반환한다.
+    boolean upsert(Member member);
+    // 없을 때만 insert 한다. 이미 있으면 아무것도 바꾸지 않고 false 를 반환한다.
+    boolean insertIfAbsent(Member member);
+    // insertIfAbsent 를 JDBC 배치로 수행한다. 행 별로 insert 했으면 1, 이미 있었으면 0 을 반환한다.
+    int[] insertAllIfAbsent(Collection<Member> members);
+
+    // 상대 갱신(money = money - ?)으로 계좌이체를 수행한다. 잔액이 부족하면 아무것도 변경하지 않는다.
+    // amount 는 양수여야 한다. 0 이하면 IllegalArgumentException 이 발생한다.
+    void transfer(String fromId, String toId, int amount);
+
+    // 두 회원 행을 member_id 순서로 잠그고 조회한다. 트랜잭션 안에서 호출해야 커밋까지 락이 유지된다.
+    List<Member> findForUpdate(String memberId1, String memberId2);
+    // 여러 회원 행을 member_id 순서로 잠그고 조회한다. 없는 회원은 결과에서 빠진다.
+    List<Member> findAllForUpdate(Collection<String> memberIds);
+
+    // 회원별 money 증감을 하나의 배치 상대 갱신(money = money + ?)으로 반영한다. Map 순서대로 update count 를 반환한다.
+    int[] addMoneyAll(Map<String, Integer> deltas);
+    // 회원별 money 를 하나의 배치 update 로 바꾼다. Map 순서대로 update count 를 반환한다.
+    int[] updateAll(Map<String, Integer> moneys);
+
+    int DEFAULT_FETCH_SIZE = 100;
+
+    // 전체 회원을 커서로 조금씩 읽는다. 스트림을 다 읽거나 close() 하면 커서와 커넥션을 반납한다. try-with-resources 로 사용한다.
+    default Stream<Member> streamAll() {
+        return streamAll(DEFAULT_FETCH_SIZE);
+    }
+    Stream<Member> streamAll(int fetchSize);
+    // money 가 minMoney 이상인 회원만 스트림으로 읽는다.
+    Stream<Member> streamByMinMoney(int minMoney, int fetchSize);
+
+    // member_id 순서로 lastMemberId 다음부터 limit 개를 조회한다. 첫 페이지는 lastMemberId 에 null 을 넘긴다.
+    MemberPage findPageAfter(String lastMemberId, int limit);
 }
@@ -85,7 +85,7 @@ public class MemberRepositoryV0 {
             pstmt.setInt(1, money);
             pstmt.setString(2, memberId);
             int resultSize = pstmt.executeUpdate();
-            log.info("resultSize={}", resultSize);
+            log.debug("resultSize={}", resultSize);
         } catch (SQLException e) {
             log.error("db error", e);
             throw e;
@@ -95,7 +95,7 @@ public class MemberRepositoryV1 {
             pstmt.setInt(1, money);
             pstmt.setString(2, memberId);
             int resultSize = pstmt.executeUpdate();
-            log.info("resultSize={}", resultSize);
+            log.debug("resultSize={}", resultSize);
         } catch (SQLException e) {
             log.error("db error", e);
             throw e;
@@ -138,7 +138,7 @@ public class MemberRepositoryV1 {
 
     private Connection getConnection() throws SQLException {
         Connection con = dataSource.getConnection();
-        log.info("get connection={}, class={}", con, con.getClass());
+        log.trace("get connection={}, class={}", con, con.getClass());
         return con;
     }
 }
@@ -188,7 +188,7 @@ public class MemberRepositoryV2 {
 
     private Connection getConnection() throws SQLException {
         Connection con = dataSource.getConnection();
-        log.info("get connection={}, class={}", con, con.getClass());
+        log.trace("get connection={}, class={}", con, con.getClass());
         return con;
     }
 }
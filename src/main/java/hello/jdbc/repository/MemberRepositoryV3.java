@@ -1,5 +1,6 @@
 package hello.jdbc.repository;
 
+import hello.jdbc.connection.PreparedStatementCache;
 import hello.jdbc.domain.Member;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.datasource.DataSourceUtils;
@@ -20,9 +21,16 @@ public class MemberRepositoryV3 {
     // DataSource 에 의존관계 주입
     // 이제 외부에서 DataSource 를 주입받기에, 직접만든 DBConnectionUtil 사용하지 않아도 된다.
     private final DataSource dataSource;
+    // null 이면 statement 를 매번 준비하고 닫는다.
+    private final PreparedStatementCache statementCache;
 
     public MemberRepositoryV3(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    public MemberRepositoryV3(DataSource dataSource, PreparedStatementCache statementCache) {
         this.dataSource = dataSource;
+        this.statementCache = statementCache;
     }
 
     public Member save(Member member) throws SQLException {
@@ -37,7 +45,7 @@ public class MemberRepositoryV3 {
             con = getConnection();
             // 데이터베이스에 전달할 SQL 과 파라미터로 전달할 데이터들을 준비한다.
             // sql : insert into member(member_id, money) values(?, ?)"
-            pstmt = con.prepareStatement(sql);
+            pstmt = prepareStatement(con, sql);
             // SQL 의 첫번째 ? 에 값을 지정한다. 문자이므로 setString 을 사용한다.
             pstmt.setString(1, member.getMemberId());
             // SQL 의 두번째 ? 에 값을 지정한다. Int 형 숫자이므로 setInt 를 지정한다.
@@ -63,7 +71,7 @@ public class MemberRepositoryV3 {
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = prepareStatement(con, sql);
             pstmt.setString(1, memberId);
             // 데이터를 조회, 결과를 ResultSet 에 담아서 반환한다.
             rs = pstmt.executeQuery();
@@ -93,7 +101,7 @@ public class MemberRepositoryV3 {
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = prepareStatement(con, sql);
             pstmt.setInt(1, money);
             pstmt.setString(2, memberId);
             pstmt.executeUpdate();
@@ -116,7 +124,7 @@ public class MemberRepositoryV3 {
             con = getConnection();
             // 데이터베이스에 전달할 SQL 과 파라미터로 전달할 데이터들을 준비한다.
             // sql : insert into member(member_id, money) values(?, ?)"
-            pstmt = con.prepareStatement(sql);
+            pstmt = prepareStatement(con, sql);
             // SQL 의 첫번째 ? 에 값을 지정한다. 문자이므로 setString 을 사용한다.
             pstmt.setString(1, memberId);
             // Statement 를 통해 준비된 SQL 을 커넥션을 통해 실제 데이터베이스에 전달한다.
@@ -129,11 +137,27 @@ public class MemberRepositoryV3 {
         }
     }
 
-    private void close(Connection con, Statement stmt, ResultSet rs) {
+    private PreparedStatement prepareStatement(Connection con, String sql) throws SQLException {
+        // statementCache 가 있으면 같은 물리 커넥션에서 이미 준비한 statement 를 재사용한다.
+        if (statementCache != null) {
+            return statementCache.prepare(con, sql);
+        }
+        return con.prepareStatement(sql);
+    }
+
+    private void closeStatement(Connection con, PreparedStatement pstmt) {
+        if (statementCache != null) {
+            statementCache.release(con, pstmt);
+            return;
+        }
+        JdbcUtils.closeStatement(pstmt);
+    }
+
+    private void close(Connection con, PreparedStatement pstmt, ResultSet rs) {
         // JdbcUtils 을 사용하면 커넥션을 좀 더 편리하게 닫을 수 있다.
         // 주렁주렁 다 까트 할 수 있다.
         JdbcUtils.closeResultSet(rs);
-        JdbcUtils.closeStatement(stmt);
+        closeStatement(con, pstmt);
         // 주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils 를 사용해야 한다.
         DataSourceUtils.releaseConnection(con, dataSource);
     }
@@ -143,7 +167,7 @@ public class MemberRepositoryV3 {
         // 트랜잭션 동기화 매니저가 관리하는 커넥션이 있으면 해당 커넥션을 반환한다.
         // 트랜잭션 동기화 매니저가 관리하는 커넥션이 없는 경우 새로운 커넥션을 생성해서 반환한다.
         Connection con = DataSourceUtils.getConnection(dataSource);
-        log.info("get connection={} class={}", con, con.getClass());
+        log.trace("get connection={} class={}", con, con.getClass());
         return con;
     }
 }
@@ -1,14 +1,35 @@
 package hello.jdbc.repository;
 
+import hello.jdbc.connection.PreparedStatementCache;
 import hello.jdbc.domain.Member;
+import hello.jdbc.metrics.OperationMetrics;
+import hello.jdbc.metrics.OperationStats;
 import hello.jdbc.repository.ex.MyDbException;
+import hello.jdbc.repository.ex.MyDbExceptionTranslator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * 예외 누수 문제 해결
@@ -21,10 +42,97 @@ import java.util.NoSuchElementException;
 // SQLException 이라는 체크 예외를 MyDbException 이라는 런타임 예외로 변환해서 던진다.
 public class MemberRepositoryV4_1 implements MemberRepository {
 
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    // findAllById 의 in 절 크기. 마지막 묶음은 빈 자리를 채워서 statement 모양을 이 몇 가지로 고정한다.
+    static final int[] IN_LIST_SIZES = {1, 4, 16, 64, 256};
+    private static final String[] IN_LIST_SQLS = new String[IN_LIST_SIZES.length];
+    // findAllExecutor 가 있을 때 이 개수 이상의 id 를 트랜잭션 밖에서 조회하면 풀의 커넥션 여러 개로 나눠서 동시에 조회한다.
+    public static final int FIND_ALL_PARALLEL_THRESHOLD = 4096;
+
+    static {
+        for (int i = 0; i < IN_LIST_SIZES.length; i++) {
+            StringBuilder sql = new StringBuilder("select * from member where member_id in (");
+            for (int j = 0; j < IN_LIST_SIZES[i]; j++) {
+                sql.append(j == 0 ? "?" : ", ?");
+            }
+            IN_LIST_SQLS[i] = sql.append(")").toString();
+        }
+    }
+
     private final DataSource dataSource;
+    // saveAll 에서 한 번의 executeBatch 로 전송할 행 수
+    private final int batchSize;
+    // null 이면 statement 를 매번 준비하고 닫는다.
+    private final PreparedStatementCache statementCache;
+    // SQLException 을 에러 코드 표로 MyDbException 계층으로 변환한다.
+    private final MyDbExceptionTranslator exceptionTranslator;
+    // upsert, insertIfAbsent SQL
+    private final UpsertDialect upsertDialect;
+    // 커넥션 획득, SQL 실행, 결과 매핑 시간을 따로 기록한다. null 이면 기록하지 않는다.
+    private final OperationStats acquireStats;
+    private final OperationStats executeStats;
+    private final OperationStats mappingStats;
+    // null 이면 findAllById 를 호출한 스레드에서 차례로 조회한다.
+    private final Executor findAllExecutor;
+    private final int findAllParallelism;
+    // member 테이블에 version 컬럼이 있는지. 처음 사용할 때 확인한다.
+    private volatile Boolean versioned;
 
     public MemberRepositoryV4_1(DataSource dataSource) {
+        this(dataSource, DEFAULT_BATCH_SIZE);
+    }
+
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize) {
+        this(dataSource, batchSize, null);
+    }
+
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize, PreparedStatementCache statementCache) {
+        this(dataSource, batchSize, statementCache, MyDbExceptionTranslator.H2);
+    }
+
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize, PreparedStatementCache statementCache,
+                                MyDbExceptionTranslator exceptionTranslator) {
+        this(dataSource, batchSize, statementCache, exceptionTranslator, new H2UpsertDialect());
+    }
+
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize, PreparedStatementCache statementCache,
+                                MyDbExceptionTranslator exceptionTranslator, UpsertDialect upsertDialect) {
+        this(dataSource, batchSize, statementCache, exceptionTranslator, upsertDialect, null);
+    }
+
+    /**
+     * @param metrics "jdbc.acquire", "jdbc.execute", "jdbc.mapping" 이름으로 단계별 시간(ns) 과 행 수를 기록한다.
+     */
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize, PreparedStatementCache statementCache,
+                                MyDbExceptionTranslator exceptionTranslator, UpsertDialect upsertDialect,
+                                OperationMetrics metrics) {
+        this(dataSource, batchSize, statementCache, exceptionTranslator, upsertDialect, metrics, null, 1);
+    }
+
+    /**
+     * @param findAllExecutor 큰 findAllById 를 나눠서 동시에 조회할 Executor. null 이면 차례로 조회한다.
+     * @param findAllParallelism 동시에 조회할 작업 수. 작업마다 커넥션을 하나씩 빌리므로 dataSource 의 풀 크기보다 작게 잡는다.
+     */
+    public MemberRepositoryV4_1(DataSource dataSource, int batchSize, PreparedStatementCache statementCache,
+                                MyDbExceptionTranslator exceptionTranslator, UpsertDialect upsertDialect,
+                                OperationMetrics metrics, Executor findAllExecutor, int findAllParallelism) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (findAllParallelism < 1) {
+            throw new IllegalArgumentException("findAllParallelism must be positive: " + findAllParallelism);
+        }
         this.dataSource = dataSource;
+        this.batchSize = batchSize;
+        this.statementCache = statementCache;
+        this.exceptionTranslator = exceptionTranslator;
+        this.upsertDialect = upsertDialect;
+        this.acquireStats = metrics == null ? null : metrics.stats("jdbc.acquire");
+        this.executeStats = metrics == null ? null : metrics.stats("jdbc.execute");
+        this.mappingStats = metrics == null ? null : metrics.stats("jdbc.mapping");
+        this.findAllExecutor = findAllExecutor;
+        this.findAllParallelism = findAllParallelism;
     }
 
     @Override
@@ -36,13 +144,13 @@ public class MemberRepositoryV4_1 implements MemberRepository {
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = prepareStatement(con, sql);
             pstmt.setString(1, member.getMemberId());
             pstmt.setInt(2, member.getMoney());
-            pstmt.executeUpdate();
+            executeUpdate(pstmt);
             return member;
         } catch (SQLException e) {
-            throw new MyDbException(e);
+            throw translate(e);
         } finally {
             close(con, pstmt, null);
         }
@@ -59,42 +167,141 @@ public class MemberRepositoryV4_1 implements MemberRepository {
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            pstmt = prepareStatement(con, sql);
             pstmt.setString(1, memberId);
             // 데이터를 조회, 결과를 ResultSet 에 담아서 반환한다.
-            rs = pstmt.executeQuery();
+            rs = executeQuery(pstmt);
 
             if (rs.next()) {
-                Member member = new Member();
-                member.setMemberId(rs.getString("member_id"));
-                member.setMoney(rs.getInt("money"));
-                return member;
+                return map(rs, isVersioned(con));
             } else {
                 throw new NoSuchElementException("member not found memberId" + memberId);
             }
 
         } catch (SQLException e) {
-            throw new MyDbException(e);
+            throw translate(e);
         } finally {
             close(con, pstmt, rs);
         }
     }
 
     @Override
-    public void update(String memberId, int money) {
-        String sql = "update member set money=? where member_id=?";
+    public MemberLookup findAllById(Collection<String> memberIds) {
+        List<String> ids = new ArrayList<>(new LinkedHashSet<>(memberIds));
+        Map<String, Member> found;
+        // 트랜잭션 안에서는 트랜잭션 커넥션 하나로만 조회해야 같은 시점의 값을 읽는다.
+        if (findAllExecutor != null && findAllParallelism > 1 && ids.size() >= FIND_ALL_PARALLEL_THRESHOLD
+                && !TransactionSynchronizationManager.isActualTransactionActive()) {
+            found = findAllParallel(ids);
+        } else {
+            found = new HashMap<>();
+            findAllChunks(ids, 0, ids.size(), found);
+        }
+        return MemberLookup.of(ids, found);
+    }
+
+    private Map<String, Member> findAllParallel(List<String> ids) {
+        // 가장 큰 in 절 단위로 나눠서 마지막 작업만 채움 묶음을 갖게 한다.
+        int chunk = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+        int chunks = (ids.size() + chunk - 1) / chunk;
+        int chunksPerTask = (chunks + findAllParallelism - 1) / findAllParallelism;
+        List<CompletableFuture<Map<String, Member>>> tasks = new ArrayList<>(findAllParallelism);
+        for (int from = 0; from < ids.size(); from += chunksPerTask * chunk) {
+            int start = from;
+            int end = Math.min(ids.size(), from + chunksPerTask * chunk);
+            tasks.add(CompletableFuture.supplyAsync(() -> {
+                Map<String, Member> found = new HashMap<>();
+                findAllChunks(ids, start, end, found);
+                return found;
+            }, findAllExecutor));
+        }
+        Map<String, Member> found = new HashMap<>();
+        try {
+            for (CompletableFuture<Map<String, Member>> task : tasks) {
+                found.putAll(task.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return found;
+    }
 
+    /**
+     * ids[from, to) 를 in 절 묶음으로 나눠서 커넥션 하나로 조회한다.
+     */
+    private void findAllChunks(List<String> ids, int from, int to, Map<String, Member> found) {
         Connection con = null;
         PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        int preparedShape = -1;
 
         try {
             con = getConnection();
-            pstmt = con.prepareStatement(sql);
+            boolean versioned = isVersioned(con);
+            int offset = from;
+            while (offset < to) {
+                int shape = inListShape(to - offset);
+                int size = IN_LIST_SIZES[shape];
+                int count = Math.min(size, to - offset);
+                // 같은 크기의 묶음이 이어지면 statement 를 그대로 다시 사용한다.
+                if (shape != preparedShape) {
+                    closeStatement(con, pstmt);
+                    pstmt = null;
+                    pstmt = prepareStatement(con, IN_LIST_SQLS[shape]);
+                    preparedShape = shape;
+                }
+                for (int i = 0; i < size; i++) {
+                    // 빈 자리는 마지막 id 로 채운다. in 절의 중복 값은 결과에 영향이 없다.
+                    pstmt.setString(i + 1, ids.get(offset + Math.min(i, count - 1)));
+                }
+                rs = executeQuery(pstmt);
+                while (rs.next()) {
+                    Member member = map(rs, versioned);
+                    found.put(member.getMemberId(), member);
+                }
+                JdbcUtils.closeResultSet(rs);
+                rs = null;
+                offset += count;
+            }
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    /**
+     * remaining 개를 담을 in 절 크기의 인덱스. 가장 큰 크기보다 많으면 가장 큰 크기를 사용한다.
+     */
+    static int inListShape(int remaining) {
+        for (int i = 0; i < IN_LIST_SIZES.length; i++) {
+            if (IN_LIST_SIZES[i] >= remaining) {
+                return i;
+            }
+        }
+        return IN_LIST_SIZES.length - 1;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            // version 컬럼이 있으면 낙관적 락을 사용하는 쪽이 변경을 알 수 있도록 version 도 올린다.
+            String sql = isVersioned(con)
+                    ? "update member set money=?, version=version+1 where member_id=?"
+                    : "update member set money=? where member_id=?";
+            pstmt = prepareStatement(con, sql);
             pstmt.setInt(1, money);
             pstmt.setString(2, memberId);
-            pstmt.executeUpdate();
+            executeUpdate(pstmt);
         } catch (SQLException e) {
-            throw new MyDbException(e);
+            throw translate(e);
         } finally {
             close(con, pstmt, null);
         }
@@ -112,23 +319,650 @@ public class MemberRepositoryV4_1 implements MemberRepository {
             con = getConnection();
             // 데이터베이스에 전달할 SQL 과 파라미터로 전달할 데이터들을 준비한다.
             // sql : insert into member(member_id, money) values(?, ?)"
-            pstmt = con.prepareStatement(sql);
+            pstmt = prepareStatement(con, sql);
             // SQL 의 첫번째 ? 에 값을 지정한다. 문자이므로 setString 을 사용한다.
             pstmt.setString(1, memberId);
             // Statement 를 통해 준비된 SQL 을 커넥션을 통해 실제 데이터베이스에 전달한다.
-            pstmt.executeUpdate();
+            executeUpdate(pstmt);
         } catch (SQLException e) {
-            throw new MyDbException(e);
+            throw translate(e);
         } finally {
             close(con, pstmt, null);
         }
     }
 
-    private void close(Connection con, Statement stmt, ResultSet rs) {
+    @Override
+    public void transfer(String fromId, String toId, int amount) {
+        // 음수 금액은 잔액 조건을 통과해서 반대 방향 이체가 되므로 먼저 막는다.
+        if (amount <= 0) {
+            throw new IllegalArgumentException("amount must be positive: " + amount);
+        }
+        // 잔액 조건을 where 절에 두어서 조회 없이 한 번의 update 로 검증과 차감을 같이 한다.
+        Connection con = null;
+        PreparedStatement withdraw = null;
+        PreparedStatement deposit = null;
+        // 트랜잭션 밖에서 호출되면 두 update 를 직접 하나의 트랜잭션으로 묶는다.
+        boolean localTx = false;
+
+        try {
+            con = getConnection();
+            if (!DataSourceUtils.isConnectionTransactional(con, dataSource) && con.getAutoCommit()) {
+                con.setAutoCommit(false);
+                localTx = true;
+            }
+            boolean versioned = isVersioned(con);
+            String withdrawSql = versioned
+                    ? "update member set money=money-?, version=version+1 where member_id=? and money>=?"
+                    : "update member set money=money-? where member_id=? and money>=?";
+            String depositSql = versioned
+                    ? "update member set money=money+?, version=version+1 where member_id=?"
+                    : "update member set money=money+? where member_id=?";
+
+            withdraw = prepareStatement(con, withdrawSql);
+            withdraw.setInt(1, amount);
+            withdraw.setString(2, fromId);
+            withdraw.setInt(3, amount);
+            if (executeUpdate(withdraw) == 0) {
+                // 실패한 경우에만 원인을 구분하기 위해 같은 커넥션으로 한 번 더 조회한다.
+                // 다른 커넥션을 빌리면 풀이 가득 찬 경우 멈추고, 트랜잭션 밖에서는 다른 시점의 값을 읽는다.
+                if (!exists(con, fromId)) {
+                    throw new NoSuchElementException("member not found memberId" + fromId);
+                }
+                throw new IllegalStateException("잔액 부족 memberId=" + fromId + ", amount=" + amount);
+            }
+
+            deposit = prepareStatement(con, depositSql);
+            deposit.setInt(1, amount);
+            deposit.setString(2, toId);
+            if (executeUpdate(deposit) == 0) {
+                throw new NoSuchElementException("member not found memberId" + toId);
+            }
+
+            if (localTx) {
+                con.commit();
+            }
+        } catch (SQLException e) {
+            rollbackLocal(con, localTx);
+            throw translate(e);
+        } catch (RuntimeException e) {
+            rollbackLocal(con, localTx);
+            throw e;
+        } finally {
+            closeStatement(con, deposit);
+            if (localTx) {
+                resetAutoCommit(con);
+            }
+            close(con, withdraw, null);
+        }
+    }
+
+    private boolean exists(Connection con, String memberId) throws SQLException {
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            pstmt = prepareStatement(con, "select 1 from member where member_id = ?");
+            pstmt.setString(1, memberId);
+            rs = executeQuery(pstmt);
+            return rs.next();
+        } finally {
+            JdbcUtils.closeResultSet(rs);
+            closeStatement(con, pstmt);
+        }
+    }
+
+    private static void rollbackLocal(Connection con, boolean localTx) {
+        if (localTx) {
+            try {
+                con.rollback();
+            } catch (SQLException e) {
+                log.info("error", e);
+            }
+        }
+    }
+
+    private static void resetAutoCommit(Connection con) {
+        try {
+            con.setAutoCommit(true); // 커넥션 풀 고려
+        } catch (SQLException e) {
+            log.info("error", e);
+        }
+    }
+
+    /**
+     * version 이 expectedVersion 과 같을 때만 money 를 바꾸고 version 을 올린다.
+     * member 테이블에 version 컬럼이 있어야 한다.
+     * alter table member add column version bigint not null default 0
+     * @return 변경에 성공하면 true, 다른 트랜잭션이 먼저 바꿨으면 false
+     */
+    @Override
+    public boolean compareAndUpdate(String memberId, long expectedVersion, int newMoney) {
+        String sql = "update member set money=?, version=version+1 where member_id=? and version=?";
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = prepareStatement(con, sql);
+            pstmt.setInt(1, newMoney);
+            pstmt.setString(2, memberId);
+            pstmt.setLong(3, expectedVersion);
+            return executeUpdate(pstmt) == 1;
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public List<Member> findForUpdate(String memberId1, String memberId2) {
+        // 두 행을 한 문장에서 member_id 순서로 잠그므로, 반대 방향 이체끼리도 같은 순서로 락을 잡는다.
+        String sql = "select * from member where member_id in (?, ?) order by member_id for update";
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = prepareStatement(con, sql);
+            pstmt.setString(1, memberId1);
+            pstmt.setString(2, memberId2);
+            rs = executeQuery(pstmt);
+
+            List<Member> members = new ArrayList<>(2);
+            boolean versioned = isVersioned(con);
+            while (rs.next()) {
+                members.add(map(rs, versioned));
+            }
+            return members;
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public List<Member> findAllForUpdate(Collection<String> memberIds) {
+        if (memberIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        StringBuilder sql = new StringBuilder("select * from member where member_id in (");
+        for (int i = 0; i < memberIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") order by member_id for update");
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            // in 절 크기마다 SQL 이 달라서 statement 캐시에 넣지 않는다.
+            pstmt = con.prepareStatement(sql.toString());
+            int index = 1;
+            for (String memberId : memberIds) {
+                pstmt.setString(index++, memberId);
+            }
+            rs = executeQuery(pstmt);
+
+            List<Member> members = new ArrayList<>(memberIds.size());
+            boolean versioned = isVersioned(con);
+            while (rs.next()) {
+                members.add(map(rs, versioned));
+            }
+            return members;
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            closeCursor(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltas) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            String sql = isVersioned(con)
+                    ? "update member set money=money+?, version=version+1 where member_id=?"
+                    : "update member set money=money+? where member_id=?";
+            pstmt = prepareStatement(con, sql);
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                pstmt.setInt(1, delta.getValue());
+                pstmt.setString(2, delta.getKey());
+                pstmt.addBatch();
+            }
+            return executeBatch(pstmt);
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneys) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            String sql = isVersioned(con)
+                    ? "update member set money=?, version=version+1 where member_id=?"
+                    : "update member set money=? where member_id=?";
+            pstmt = prepareStatement(con, sql);
+            for (Map.Entry<String, Integer> money : moneys.entrySet()) {
+                pstmt.setInt(1, money.getValue());
+                pstmt.setString(2, money.getKey());
+                pstmt.addBatch();
+            }
+            return executeBatch(pstmt);
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public MemberPage findPageAfter(String lastMemberId, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        // offset 대신 마지막 키 이후를 기본 키 인덱스로 찾아서 페이지 깊이와 관계없이 비용이 같다.
+        // 다음 페이지가 있는지 알기 위해 한 행을 더 읽는다.
+        String sql = lastMemberId == null
+                ? "select * from member order by member_id limit ?"
+                : "select * from member where member_id>? order by member_id limit ?";
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = prepareStatement(con, sql);
+            int index = 1;
+            if (lastMemberId != null) {
+                pstmt.setString(index++, lastMemberId);
+            }
+            pstmt.setInt(index, limit + 1);
+            rs = executeQuery(pstmt);
+
+            List<Member> members = new ArrayList<>(limit);
+            // findById 와 같은 매핑을 사용해서 version 이 있으면 같이 읽는다.
+            boolean versioned = isVersioned(con);
+            boolean hasNext = false;
+            while (rs.next()) {
+                if (members.size() == limit) {
+                    hasNext = true;
+                    break;
+                }
+                members.add(map(rs, versioned));
+            }
+            String nextMemberId = hasNext ? members.get(members.size() - 1).getMemberId() : null;
+            return new MemberPage(members, nextMemberId);
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll(int fetchSize) {
+        return stream("select * from member", null, fetchSize);
+    }
+
+    @Override
+    public Stream<Member> streamByMinMoney(int minMoney, int fetchSize) {
+        return stream("select * from member where money>=?", minMoney, fetchSize);
+    }
+
+    private Stream<Member> stream(String sql, Integer parameter, int fetchSize) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        boolean versioned;
+
+        try {
+            con = getConnection();
+            versioned = isVersioned(con);
+            // 커서는 스트림이 닫힐 때까지 열려 있으므로 statement 캐시를 사용하지 않는다.
+            pstmt = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            pstmt.setFetchSize(fetchSize);
+            if (parameter != null) {
+                pstmt.setInt(1, parameter);
+            }
+            rs = executeQuery(pstmt);
+        } catch (SQLException e) {
+            closeCursor(con, pstmt, rs);
+            throw translate(e);
+        }
+
+        MemberCursor cursor = new MemberCursor(con, pstmt, rs, versioned);
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
+    }
+
+    private void closeCursor(Connection con, PreparedStatement pstmt, ResultSet rs) {
+        JdbcUtils.closeResultSet(rs);
+        JdbcUtils.closeStatement(pstmt);
+        DataSourceUtils.releaseConnection(con, dataSource);
+    }
+
+    /**
+     * ResultSet 을 한 행씩 Member 로 읽는다. 마지막 행을 지나거나 예외가 나면 바로 자원을 반납한다.
+     */
+    private class MemberCursor extends Spliterators.AbstractSpliterator<Member> {
+        private final Connection con;
+        private final PreparedStatement pstmt;
+        private final ResultSet rs;
+        private final boolean versioned;
+        private boolean closed;
+
+        MemberCursor(Connection con, PreparedStatement pstmt, ResultSet rs, boolean versioned) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.con = con;
+            this.pstmt = pstmt;
+            this.rs = rs;
+            this.versioned = versioned;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Member> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (!rs.next()) {
+                    close();
+                    return false;
+                }
+                action.accept(map(rs, versioned));
+                return true;
+            } catch (SQLException e) {
+                close();
+                throw translate(e);
+            }
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                closeCursor(con, pstmt, rs);
+            }
+        }
+    }
+
+    @Override
+    public int[] saveAll(Collection<Member> members) {
+        return executeBatch("batch insert", "insert into member(member_id, money) values(?, ?)", members.iterator(), members.size());
+    }
+
+    @Override
+    public int[] saveAll(Iterator<Member> members) {
+        return executeBatch("batch insert", "insert into member(member_id, money) values(?, ?)", members, batchSize);
+    }
+
+    @Override
+    public boolean upsert(Member member) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = prepareStatement(con, upsertDialect.upsertSql(isVersioned(con)));
+            pstmt.setString(1, member.getMemberId());
+            pstmt.setInt(2, member.getMoney());
+            rs = executeQuery(pstmt);
+            return rs.next() && rs.getBoolean(1);
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, rs);
+        }
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = prepareStatement(con, upsertDialect.insertIfAbsentSql());
+            pstmt.setString(1, member.getMemberId());
+            pstmt.setInt(2, member.getMoney());
+            return executeUpdate(pstmt) > 0;
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    @Override
+    public int[] insertAllIfAbsent(Collection<Member> members) {
+        return executeBatch("batch insert if absent", upsertDialect.insertIfAbsentSql(), members.iterator(), members.size());
+    }
+
+    /**
+     * (member_id, money) 파라미터 SQL 을 batchSize 단위로 나눠서 배치 실행한다.
+     * @param operation 실패 메시지에 쓰는 작업 이름
+     * @param expectedRows 결과 배열의 초기 크기. 모르면 batchSize 를 넘긴다.
+     */
+    private int[] executeBatch(String operation, String sql, Iterator<Member> members, int expectedRows) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        // 현재 배치에 담긴 행. 실패한 행을 memberId 로 알려주기 위해 보관한다.
+        List<Member> pending = new ArrayList<>(batchSize);
+        BatchResults results = new BatchResults(expectedRows);
+
+        try {
+            // 커넥션과 PreparedStatement 는 전체 작업에서 한 번만 획득한다.
+            con = getConnection();
+            pstmt = prepareStatement(con, sql);
+            while (members.hasNext()) {
+                Member member = members.next();
+                pstmt.setString(1, member.getMemberId());
+                pstmt.setInt(2, member.getMoney());
+                pstmt.addBatch();
+                pending.add(member);
+                if (pending.size() == batchSize) {
+                    executeBatch(operation, pstmt, pending, results);
+                }
+            }
+            if (!pending.isEmpty()) {
+                executeBatch(operation, pstmt, pending, results);
+            }
+            return results.toArray();
+        } catch (SQLException e) {
+            throw translate(e);
+        } finally {
+            close(con, pstmt, null);
+        }
+    }
+
+    private void executeBatch(String operation, PreparedStatement pstmt, List<Member> pending,
+                              BatchResults results) throws SQLException {
+        int offset = results.size();
+        try {
+            results.addAll(executeBatch(pstmt));
+            pending.clear();
+        } catch (BatchUpdateException e) {
+            // 실패한 행을 찾아서 행 단위로 예외를 변환한다.
+            int failedRow = failedRow(e.getUpdateCounts());
+            Member failed = pending.get(Math.min(failedRow, pending.size() - 1));
+            String message = operation + " failed memberId=" + failed.getMemberId() + ", row=" + (offset + failedRow);
+            throw exceptionTranslator.translate(message, e);
+        }
+    }
+
+    /**
+     * 배치마다 이어 붙이는 결과 배열. 모자라면 두 배로 늘려서 전체 복사량을 행 수에 비례하게 한다.
+     */
+    private static class BatchResults {
+        private int[] counts;
+        private int size;
+
+        BatchResults(int capacity) {
+            this.counts = new int[Math.max(capacity, 1)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void addAll(int[] batch) {
+            if (size + batch.length > counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(counts.length * 2, size + batch.length));
+            }
+            System.arraycopy(batch, 0, counts, size, batch.length);
+            size += batch.length;
+        }
+
+        int[] toArray() {
+            return size == counts.length ? counts : Arrays.copyOf(counts, size);
+        }
+    }
+
+    private static int failedRow(int[] counts) {
+        // 드라이버가 실패 이후에도 계속 실행하면 EXECUTE_FAILED 로 표시되고, 중단하면 실패 지점까지만 반환된다.
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == Statement.EXECUTE_FAILED) {
+                return i;
+            }
+        }
+        return counts.length;
+    }
+
+    private boolean isVersioned(Connection con) throws SQLException {
+        // version 컬럼은 선택 사항이라 처음 한 번만 테이블 메타데이터로 확인한다.
+        Boolean current = versioned;
+        if (current == null) {
+            current = false;
+            try (Statement stmt = con.createStatement();
+                 ResultSet rs = stmt.executeQuery("select * from member where 1=0")) {
+                ResultSetMetaData metaData = rs.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    if ("version".equalsIgnoreCase(metaData.getColumnName(i))) {
+                        current = true;
+                    }
+                }
+            }
+            versioned = current;
+        }
+        return current;
+    }
+
+    private ResultSet executeQuery(PreparedStatement pstmt) throws SQLException {
+        if (executeStats == null) {
+            return pstmt.executeQuery();
+        }
+        long start = System.nanoTime();
+        try {
+            return pstmt.executeQuery();
+        } finally {
+            executeStats.record(System.nanoTime() - start);
+        }
+    }
+
+    private int executeUpdate(PreparedStatement pstmt) throws SQLException {
+        if (executeStats == null) {
+            return pstmt.executeUpdate();
+        }
+        long start = System.nanoTime();
+        try {
+            int count = pstmt.executeUpdate();
+            executeStats.addRows(count);
+            return count;
+        } finally {
+            executeStats.record(System.nanoTime() - start);
+        }
+    }
+
+    private int[] executeBatch(PreparedStatement pstmt) throws SQLException {
+        if (executeStats == null) {
+            return pstmt.executeBatch();
+        }
+        long start = System.nanoTime();
+        try {
+            int[] counts = pstmt.executeBatch();
+            executeStats.addRows(affectedRows(counts));
+            return counts;
+        } finally {
+            executeStats.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 배치 결과의 영향받은 행 수. 드라이버가 건수를 모르면 SUCCESS_NO_INFO(-2) 를 반환하므로 1건으로 센다.
+     */
+    static long affectedRows(int[] counts) {
+        long rows = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                rows += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private Member map(ResultSet rs, boolean versioned) throws SQLException {
+        if (mappingStats == null) {
+            return toMember(rs, versioned);
+        }
+        long start = System.nanoTime();
+        Member member = toMember(rs, versioned);
+        mappingStats.record(System.nanoTime() - start);
+        mappingStats.addRows(1);
+        return member;
+    }
+
+    private static Member toMember(ResultSet rs, boolean versioned) throws SQLException {
+        Member member = new Member();
+        member.setMemberId(rs.getString("member_id"));
+        member.setMoney(rs.getInt("money"));
+        if (versioned) {
+            member.setVersion(rs.getLong("version"));
+        }
+        return member;
+    }
+
+    private MyDbException translate(SQLException e) {
+        return exceptionTranslator.translate(e);
+    }
+
+    private PreparedStatement prepareStatement(Connection con, String sql) throws SQLException {
+        // statementCache 가 있으면 같은 물리 커넥션에서 이미 준비한 statement 를 재사용한다.
+        if (statementCache != null) {
+            return statementCache.prepare(con, sql);
+        }
+        return con.prepareStatement(sql);
+    }
+
+    private void closeStatement(Connection con, PreparedStatement pstmt) {
+        if (statementCache != null) {
+            statementCache.release(con, pstmt);
+            return;
+        }
+        JdbcUtils.closeStatement(pstmt);
+    }
+
+    private void close(Connection con, PreparedStatement pstmt, ResultSet rs) {
         // JdbcUtils 을 사용하면 커넥션을 좀 더 편리하게 닫을 수 있다.
         // 주렁주렁 다 까트 할 수 있다.
         JdbcUtils.closeResultSet(rs);
-        JdbcUtils.closeStatement(stmt);
+        closeStatement(con, pstmt);
         // 주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils 를 사용해야 한다.
         DataSourceUtils.releaseConnection(con, dataSource);
     }
@@ -137,8 +971,15 @@ public class MemberRepositoryV4_1 implements MemberRepository {
         // 주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils 를 사용해야 한다. 다음과 같이 동작한다.
         // 트랜잭션 동기화 매니저가 관리하는 커넥션이 있으면 해당 커넥션을 반환한다.
         // 트랜잭션 동기화 매니저가 관리하는 커넥션이 없는 경우 새로운 커넥션을 생성해서 반환한다.
-        Connection con = DataSourceUtils.getConnection(dataSource);
-        log.info("get connection={} class={}", con, con.getClass());
+        Connection con;
+        if (acquireStats == null) {
+            con = DataSourceUtils.getConnection(dataSource);
+        } else {
+            long start = System.nanoTime();
+            con = DataSourceUtils.getConnection(dataSource);
+            acquireStats.record(System.nanoTime() - start);
+        }
+        log.trace("get connection={} class={}", con, con.getClass());
         return con;
     }
 }
@@ -0,0 +1,606 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.ex.MyDuplicateKeyException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Stream;
+
+/**
+ * 메모리 저장소 - JDBC 없이 잔액만 보관한다.
+ * memberId -> int 잔액을 오픈 어드레싱(선형 탐사) 배열에 저장해서 회원마다 Member 객체나 Integer 를 만들지 않는다.
+ * 세그먼트마다 StampedLock 을 두고, 조회는 낙관적 읽기로 락 없이 수행한다.
+ * 동시 계좌이체는 transfer 를 사용해야 안전하다. findById 후 update 하는 방식은 원자적이지 않다.
+ */
+public class MemoryMemberRepository implements MemberRepository {
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long MISSING = Long.MIN_VALUE;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final int segmentShift;
+
+    public MemoryMemberRepository() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    public MemoryMemberRepository(int concurrencyLevel) {
+        int size = 1;
+        int bits = 0;
+        while (size < concurrencyLevel) {
+            size <<= 1;
+            bits++;
+        }
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(i);
+        }
+        this.segmentMask = size - 1;
+        // 세그먼트는 해시의 상위 비트, 세그먼트 안의 슬롯은 하위 비트로 고른다.
+        this.segmentShift = 32 - bits;
+    }
+
+    @Override
+    public Member save(Member member) {
+        String memberId = member.getMemberId();
+        int hash = hash(memberId);
+        if (!segmentFor(hash).insert(memberId, hash, member.getMoney())) {
+            // 중복 키는 예상하고 복구하는 예외라서 스택 트레이스를 만들지 않는다.
+            throw new MyDuplicateKeyException("duplicate key memberId=" + memberId, null, false);
+        }
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        int hash = hash(memberId);
+        Member member = segmentFor(hash).member(memberId, hash);
+        if (member == null) {
+            throw new NoSuchElementException("member not found memberId" + memberId);
+        }
+        return member;
+    }
+
+    @Override
+    public MemberLookup findAllById(Collection<String> memberIds) {
+        Map<String, Member> found = new HashMap<>();
+        for (String memberId : memberIds) {
+            int hash = hash(memberId);
+            Member member = segmentFor(hash).member(memberId, hash);
+            if (member != null) {
+                found.put(memberId, member);
+            }
+        }
+        return MemberLookup.of(memberIds, found);
+    }
+
+    /**
+     * Member 를 만들지 않고 잔액만 조회한다.
+     */
+    public int getMoney(String memberId) {
+        int hash = hash(memberId);
+        long money = segmentFor(hash).get(memberId, hash);
+        if (money == MISSING) {
+            throw new NoSuchElementException("member not found memberId" + memberId);
+        }
+        return (int) money;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        int hash = hash(memberId);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = segment.indexOf(memberId, hash);
+            // JDBC 저장소와 마찬가지로 없는 회원을 update 하면 아무 일도 일어나지 않는다.
+            if (index >= 0) {
+                segment.table.values[index] = money;
+                segment.table.versions[index]++;
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean compareAndUpdate(String memberId, long expectedVersion, int newMoney) {
+        int hash = hash(memberId);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = segment.indexOf(memberId, hash);
+            if (index < 0 || segment.table.versions[index] != expectedVersion) {
+                return false;
+            }
+            segment.table.values[index] = newMoney;
+            segment.table.versions[index]++;
+            return true;
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void delete(String memberId) {
+        int hash = hash(memberId);
+        segmentFor(hash).remove(memberId, hash);
+    }
+
+    @Override
+    public int[] saveAll(Collection<Member> members) {
+        return saveAll(members.iterator());
+    }
+
+    @Override
+    public int[] saveAll(Iterator<Member> members) {
+        int[] results = new int[INITIAL_CAPACITY];
+        int count = 0;
+        while (members.hasNext()) {
+            Member member = members.next();
+            try {
+                save(member);
+            } catch (MyDuplicateKeyException e) {
+                throw new MyDuplicateKeyException("batch insert failed memberId=" + member.getMemberId() + ", row=" + count, e);
+            }
+            if (count == results.length) {
+                int[] grown = new int[count << 1];
+                System.arraycopy(results, 0, grown, 0, count);
+                results = grown;
+            }
+            results[count++] = 1;
+        }
+        int[] saved = new int[count];
+        System.arraycopy(results, 0, saved, 0, count);
+        return saved;
+    }
+
+    @Override
+    public boolean upsert(Member member) {
+        String memberId = member.getMemberId();
+        int hash = hash(memberId);
+        return segmentFor(hash).upsert(memberId, hash, member.getMoney());
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        String memberId = member.getMemberId();
+        int hash = hash(memberId);
+        return segmentFor(hash).insert(memberId, hash, member.getMoney());
+    }
+
+    @Override
+    public int[] insertAllIfAbsent(Collection<Member> members) {
+        int[] results = new int[members.size()];
+        int i = 0;
+        for (Member member : members) {
+            results[i++] = insertIfAbsent(member) ? 1 : 0;
+        }
+        return results;
+    }
+
+    @Override
+    public void transfer(String fromId, String toId, int amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("amount must be positive: " + amount);
+        }
+        int fromHash = hash(fromId);
+        int toHash = hash(toId);
+        Segment from = segmentFor(fromHash);
+        Segment to = segmentFor(toHash);
+        // 데드락을 피하기 위해 항상 세그먼트 번호 순서로 잠근다.
+        Segment first = from.index <= to.index ? from : to;
+        Segment second = from.index <= to.index ? to : from;
+
+        long firstStamp = first.lock.writeLock();
+        long secondStamp = first == second ? 0 : second.lock.writeLock();
+        try {
+            int fromIndex = from.indexOf(fromId, fromHash);
+            if (fromIndex < 0) {
+                throw new NoSuchElementException("member not found memberId" + fromId);
+            }
+            int toIndex = to.indexOf(toId, toHash);
+            if (toIndex < 0) {
+                throw new NoSuchElementException("member not found memberId" + toId);
+            }
+            int[] fromValues = from.table.values;
+            if (fromValues[fromIndex] < amount) {
+                throw new IllegalStateException("잔액 부족 memberId=" + fromId + ", amount=" + amount);
+            }
+            fromValues[fromIndex] -= amount;
+            from.table.versions[fromIndex]++;
+            to.table.values[toIndex] += amount;
+            to.table.versions[toIndex]++;
+        } finally {
+            if (first != second) {
+                second.lock.unlockWrite(secondStamp);
+            }
+            first.lock.unlockWrite(firstStamp);
+        }
+    }
+
+    /**
+     * 메모리 저장소에는 트랜잭션 락이 없으므로 member_id 순서로 조회만 한다. 동시 이체는 transfer 를 사용한다.
+     */
+    @Override
+    public List<Member> findForUpdate(String memberId1, String memberId2) {
+        List<Member> members = new ArrayList<>(2);
+        String first = memberId1.compareTo(memberId2) <= 0 ? memberId1 : memberId2;
+        String second = first == memberId1 ? memberId2 : memberId1;
+        addIfPresent(members, first);
+        if (!second.equals(first)) {
+            addIfPresent(members, second);
+        }
+        return members;
+    }
+
+    @Override
+    public List<Member> findAllForUpdate(Collection<String> memberIds) {
+        List<Member> members = new ArrayList<>(memberIds.size());
+        memberIds.stream().distinct().sorted().forEach(memberId -> addIfPresent(members, memberId));
+        return members;
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltas) {
+        return applyAll(deltas, true);
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneys) {
+        return applyAll(moneys, false);
+    }
+
+    /**
+     * 관련된 세그먼트를 번호 순서로 모두 잠그고 한 번에 반영한다.
+     * @param relative true 면 값을 더하고, false 면 값으로 바꾼다.
+     */
+    private int[] applyAll(Map<String, Integer> deltas, boolean relative) {
+        boolean[] involved = new boolean[segments.length];
+        for (String memberId : deltas.keySet()) {
+            involved[(hash(memberId) >>> segmentShift) & segmentMask] = true;
+        }
+        long[] stamps = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            if (involved[i]) {
+                stamps[i] = segments[i].lock.writeLock();
+            }
+        }
+        try {
+            int[] counts = new int[deltas.size()];
+            int row = 0;
+            for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+                int hash = hash(delta.getKey());
+                Segment segment = segmentFor(hash);
+                int index = segment.indexOf(delta.getKey(), hash);
+                if (index >= 0) {
+                    if (relative) {
+                        segment.table.values[index] += delta.getValue();
+                    } else {
+                        segment.table.values[index] = delta.getValue();
+                    }
+                    segment.table.versions[index]++;
+                    counts[row] = 1;
+                }
+                row++;
+            }
+            return counts;
+        } finally {
+            for (int i = segments.length - 1; i >= 0; i--) {
+                if (involved[i]) {
+                    segments[i].lock.unlockWrite(stamps[i]);
+                }
+            }
+        }
+    }
+
+    private void addIfPresent(List<Member> members, String memberId) {
+        int hash = hash(memberId);
+        Member member = segmentFor(hash).member(memberId, hash);
+        if (member != null) {
+            members.add(member);
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll(int fetchSize) {
+        return streamByMinMoney(Integer.MIN_VALUE, fetchSize);
+    }
+
+    /**
+     * 세그먼트 하나씩 복사해서 읽는다. 한 번에 한 세그먼트 크기만큼만 메모리를 사용하고, fetchSize 는 의미가 없다.
+     */
+    @Override
+    public Stream<Member> streamByMinMoney(int minMoney, int fetchSize) {
+        return Arrays.stream(segments).flatMap(segment -> segment.snapshot(minMoney).stream());
+    }
+
+    /**
+     * 해시 테이블은 순서가 없으므로 전체를 훑으면서 다음 limit + 1 개만 힙에 남긴다.
+     * JDBC 저장소와 달리 비용이 전체 회원 수에 비례한다.
+     */
+    @Override
+    public MemberPage findPageAfter(String lastMemberId, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        // 가장 큰 memberId 가 맨 위에 오는 힙
+        PriorityQueue<Member> heap = new PriorityQueue<>(limit + 1,
+                (a, b) -> b.getMemberId().compareTo(a.getMemberId()));
+        streamAll()
+                .filter(member -> lastMemberId == null || member.getMemberId().compareTo(lastMemberId) > 0)
+                .forEach(member -> {
+                    heap.add(member);
+                    if (heap.size() > limit + 1) {
+                        heap.poll();
+                    }
+                });
+        boolean hasNext = heap.size() > limit;
+        if (hasNext) {
+            heap.poll();
+        }
+        List<Member> members = new ArrayList<>(heap);
+        members.sort((a, b) -> a.getMemberId().compareTo(b.getMemberId()));
+        String nextMemberId = hasNext ? members.get(members.size() - 1).getMemberId() : null;
+        return new MemberPage(members, nextMemberId);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> segmentShift) & segmentMask];
+    }
+
+    private static int hash(String memberId) {
+        // String.hashCode 의 하위 비트 편향을 섞어준다.
+        int h = memberId.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * keys 와 values 를 한 번에 교체하기 위해 묶어둔다. 낙관적 읽기 중에 길이가 다른 배열을 보지 않는다.
+     */
+    private static final class Table {
+        final String[] keys;
+        final int[] values;
+        // 낙관적 락 버전. money 가 바뀔 때마다 올린다.
+        final long[] versions;
+
+        Table(int capacity) {
+            this.keys = new String[capacity];
+            this.values = new int[capacity];
+            this.versions = new long[capacity];
+        }
+    }
+
+    private static final class Segment {
+        final int index;
+        final StampedLock lock = new StampedLock();
+        Table table = new Table(INITIAL_CAPACITY);
+        int size;
+
+        Segment(int index) {
+            this.index = index;
+        }
+
+        long get(String key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            long money = find(key, hash);
+            if (!lock.validate(stamp)) {
+                // 읽는 도중 쓰기가 있었으면 읽기 락을 잡고 다시 읽는다.
+                stamp = lock.readLock();
+                try {
+                    money = find(key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return money;
+        }
+
+        Member member(String key, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            Member member = findMember(key, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    member = findMember(key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return member;
+        }
+
+        private Member findMember(String key, int hash) {
+            Table t = table;
+            String[] keys = t.keys;
+            int mask = keys.length - 1;
+            for (int i = hash & mask, n = 0; n < keys.length; i = (i + 1) & mask, n++) {
+                String k = keys[i];
+                if (k == null) {
+                    return null;
+                }
+                if (k.equals(key)) {
+                    return new Member(key, t.values[i], t.versions[i]);
+                }
+            }
+            return null;
+        }
+
+        private long find(String key, int hash) {
+            Table t = table;
+            String[] keys = t.keys;
+            int mask = keys.length - 1;
+            // 낙관적 읽기 중에는 배열이 바뀔 수 있으므로 탐사 횟수를 배열 길이로 제한한다.
+            for (int i = hash & mask, n = 0; n < keys.length; i = (i + 1) & mask, n++) {
+                String k = keys[i];
+                if (k == null) {
+                    return MISSING;
+                }
+                if (k.equals(key)) {
+                    return t.values[i];
+                }
+            }
+            return MISSING;
+        }
+
+        /**
+         * 쓰기 락을 잡은 상태에서 호출해야 한다.
+         */
+        int indexOf(String key, int hash) {
+            String[] keys = table.keys;
+            int mask = keys.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                String k = keys[i];
+                if (k == null) {
+                    return -1;
+                }
+                if (k.equals(key)) {
+                    return i;
+                }
+            }
+        }
+
+        boolean insert(String key, int hash, int money) {
+            long stamp = lock.writeLock();
+            try {
+                if (indexOf(key, hash) >= 0) {
+                    return false;
+                }
+                insertAbsent(key, hash, money);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * @return 새로 insert 했으면 true, 기존 회원의 money 를 바꿨으면 false
+         */
+        boolean upsert(String key, int hash, int money) {
+            long stamp = lock.writeLock();
+            try {
+                int index = indexOf(key, hash);
+                if (index >= 0) {
+                    table.values[index] = money;
+                    table.versions[index]++;
+                    return false;
+                }
+                insertAbsent(key, hash, money);
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void insertAbsent(String key, int hash, int money) {
+            // 부하율 1/2 를 넘지 않게 유지해서 탐사 길이를 짧게 한다.
+            if ((size + 1) << 1 > table.keys.length) {
+                resize();
+            }
+            put(table, key, hash, money, 0);
+            size++;
+        }
+
+        boolean remove(String key, int hash) {
+            long stamp = lock.writeLock();
+            try {
+                int index = indexOf(key, hash);
+                if (index < 0) {
+                    return false;
+                }
+                removeAt(index);
+                size--;
+                return true;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        List<Member> snapshot(int minMoney) {
+            long stamp = lock.readLock();
+            try {
+                List<Member> members = new ArrayList<>(size);
+                String[] keys = table.keys;
+                int[] values = table.values;
+                long[] versions = table.versions;
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != null && values[i] >= minMoney) {
+                        members.add(new Member(keys[i], values[i], versions[i]));
+                    }
+                }
+                return members;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private void removeAt(int hole) {
+            // 묘비를 남기지 않고 뒤따르는 항목을 당겨오는 backward shift 삭제
+            String[] keys = table.keys;
+            int[] values = table.values;
+            long[] versions = table.versions;
+            int mask = keys.length - 1;
+            for (int j = (hole + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                // home 이 (hole, j] 구간 밖에 있으면 hole 로 옮겨도 탐사 경로가 끊기지 않는다.
+                boolean between = hole < j ? (home > hole && home <= j) : (home > hole || home <= j);
+                if (!between) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    versions[hole] = versions[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = null;
+            values[hole] = 0;
+            versions[hole] = 0;
+        }
+
+        private void resize() {
+            Table old = table;
+            Table grown = new Table(old.keys.length << 1);
+            for (int i = 0; i < old.keys.length; i++) {
+                String k = old.keys[i];
+                if (k != null) {
+                    put(grown, k, hash(k), old.values[i], old.versions[i]);
+                }
+            }
+            table = grown;
+        }
+
+        private static void put(Table t, String key, int hash, int money, long version) {
+            int mask = t.keys.length - 1;
+            int i = hash & mask;
+            while (t.keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            t.keys[i] = key;
+            t.values[i] = money;
+            t.versions[i] = version;
+        }
+    }
+}
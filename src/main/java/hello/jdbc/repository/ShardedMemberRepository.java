@@ -0,0 +1,493 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.ex.MyDbExceptionTranslator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * memberId 의 일관된 해시로 회원을 여러 데이터베이스(샤드)에 나눠 저장하는 저장소
+ * 회원 하나만 다루는 메서드는 해당 샤드로 바로 보낸다.
+ * 여러 회원을 다루는 메서드(saveAll, addMoneyAll 등)는 샤드별로 나눠 실행하며 샤드 사이에서는 원자적이지 않다.
+ *
+ * 샤드가 다른 회원 사이의 transfer 는 두 샤드의 로컬 트랜잭션을 함께 연다.
+ * 1. 두 회원 행을 member_id 순서로 잠그고 잔액을 확인한다.
+ * 2. to 샤드에는 입금과 적용 표시(member_transfer_applied), from 샤드에는 출금과 복구 로그(member_transfer_log)를 쓴다.
+ * 3. from 샤드를 먼저 커밋한다. 이 커밋이 결정 시점이다. 그 다음 to 샤드를 커밋한다.
+ * 4. 둘 다 커밋되면 복구 로그와 적용 표시를 지운다.
+ * from 커밋 후 to 커밋 전에 실패하면 복구 로그가 남는다. recover() 가 적용 표시가 없는 이체의 입금을 다시 반영한다.
+ */
+@Slf4j
+public class ShardedMemberRepository implements MemberRepository {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final ConsistentHashRing ring;
+
+    private final LongAdder crossShardTransfers = new LongAdder();
+    private final LongAdder inDoubtTransfers = new LongAdder();
+
+    public ShardedMemberRepository(List<DataSource> dataSources) {
+        this(dataSources, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardedMemberRepository(List<DataSource> dataSources, int virtualNodes) {
+        for (int i = 0; i < dataSources.size(); i++) {
+            shards.add(new Shard(i, dataSources.get(i)));
+        }
+        this.ring = new ConsistentHashRing(dataSources.size(), virtualNodes);
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public int shardOf(String memberId) {
+        return ring.shardOf(memberId);
+    }
+
+    private Shard shard(String memberId) {
+        return shards.get(ring.shardOf(memberId));
+    }
+
+    @Override
+    public Member save(Member member) {
+        return shard(member.getMemberId()).repository.save(member);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return shard(memberId).repository.findById(memberId);
+    }
+
+    @Override
+    public MemberLookup findAllById(Collection<String> memberIds) {
+        Map<String, Member> found = new HashMap<>();
+        for (Map.Entry<Shard, List<String>> group : groupByShard(new LinkedHashSet<>(memberIds), Function.identity()).entrySet()) {
+            found.putAll(group.getKey().repository.findAllById(group.getValue()).getMembers());
+        }
+        return MemberLookup.of(memberIds, found);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        shard(memberId).repository.update(memberId, money);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        shard(memberId).repository.delete(memberId);
+    }
+
+    @Override
+    public boolean compareAndUpdate(String memberId, long expectedVersion, int newMoney) {
+        return shard(memberId).repository.compareAndUpdate(memberId, expectedVersion, newMoney);
+    }
+
+    @Override
+    public int[] saveAll(Collection<Member> members) {
+        return scatter(members, Member::getMemberId, (shard, group) -> shard.repository.saveAll(group));
+    }
+
+    @Override
+    public int[] saveAll(Iterator<Member> members) {
+        List<Member> list = new ArrayList<>();
+        members.forEachRemaining(list::add);
+        return saveAll(list);
+    }
+
+    @Override
+    public boolean upsert(Member member) {
+        return shard(member.getMemberId()).repository.upsert(member);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        return shard(member.getMemberId()).repository.insertIfAbsent(member);
+    }
+
+    @Override
+    public int[] insertAllIfAbsent(Collection<Member> members) {
+        return scatter(members, Member::getMemberId, (shard, group) -> shard.repository.insertAllIfAbsent(group));
+    }
+
+    @Override
+    public void transfer(String fromId, String toId, int amount) {
+        if (amount <= 0) {
+            throw new IllegalArgumentException("amount must be positive: " + amount);
+        }
+        Shard from = shard(fromId);
+        Shard to = shard(toId);
+        if (from == to) {
+            sameShardTransfer(from, fromId, toId, amount);
+            return;
+        }
+        crossShardTransfer(from, fromId, to, toId, amount);
+    }
+
+    private static void sameShardTransfer(Shard shard, String fromId, String toId, int amount) {
+        // 샤드 간 이체와 같이 member_id 순서로 먼저 잠가서 반대 방향 이체와 데드락이 나지 않게 한다.
+        // 호출한 쪽 트랜잭션이 있으면 참여한다.
+        shard.joiningTransactionTemplate.executeWithoutResult(status -> {
+            if (fromId.compareTo(toId) < 0) {
+                lock(shard, fromId);
+                lock(shard, toId);
+            } else {
+                lock(shard, toId);
+                lock(shard, fromId);
+            }
+            shard.repository.transfer(fromId, toId, amount);
+        });
+    }
+
+    private void crossShardTransfer(Shard from, String fromId, Shard to, String toId, int amount) {
+        from.createLogTables();
+        to.createLogTables();
+        String txId = UUID.randomUUID().toString();
+        boolean[] fromCommitted = {false};
+
+        try {
+            // to 트랜잭션 안에서 from 트랜잭션을 열어서, 안쪽인 from 이 먼저 커밋되게 한다.
+            to.transactionTemplate.executeWithoutResult(toStatus -> {
+                from.transactionTemplate.executeWithoutResult(fromStatus -> {
+                    // 반대 방향 이체와 데드락이 나지 않도록 샤드와 관계없이 member_id 순서로 잠근다.
+                    Member fromMember;
+                    if (fromId.compareTo(toId) < 0) {
+                        fromMember = lock(from, fromId);
+                        lock(to, toId);
+                    } else {
+                        lock(to, toId);
+                        fromMember = lock(from, fromId);
+                    }
+                    if (fromMember.getMoney() < amount) {
+                        throw new IllegalStateException("잔액 부족 memberId=" + fromId + ", amount=" + amount);
+                    }
+                    to.update("insert into member_transfer_applied(tx_id) values(?)", txId);
+                    to.repository.addMoneyAll(Map.of(toId, amount));
+                    from.repository.addMoneyAll(Map.of(fromId, -amount));
+                    from.update("insert into member_transfer_log(tx_id, from_id, to_id, amount) values(?, ?, ?, ?)",
+                            txId, fromId, toId, amount);
+                });
+                fromCommitted[0] = true;
+            });
+        } catch (RuntimeException e) {
+            if (fromCommitted[0]) {
+                // 출금은 커밋되었고 입금은 롤백되었다. 복구 로그가 남아 있으므로 recover() 로 마저 끝낸다.
+                inDoubtTransfers.increment();
+                log.warn("in-doubt transfer txId={}, from={}, to={}, amount={}", txId, fromId, toId, amount, e);
+            }
+            throw e;
+        }
+        crossShardTransfers.increment();
+        cleanup(from, to, txId);
+    }
+
+    private static Member lock(Shard shard, String memberId) {
+        List<Member> members = shard.repository.findAllForUpdate(List.of(memberId));
+        if (members.isEmpty()) {
+            throw new NoSuchElementException("member not found memberId=" + memberId);
+        }
+        return members.get(0);
+    }
+
+    /**
+     * 복구 로그가 남은 샤드 간 이체를 마저 끝낸다.
+     * 입금이 이미 반영된 이체(적용 표시가 있음)는 로그만 지우므로 여러 번 호출해도 안전하다.
+     * from 만 커밋된 진행 중 이체의 로그도 보이므로, 애플리케이션 시작 시처럼 샤드 간 이체가 없을 때 호출한다.
+     * @return 입금을 다시 반영한 이체 수
+     */
+    public int recover() {
+        int redone = 0;
+        for (Shard from : shards) {
+            from.createLogTables();
+            for (PendingTransfer pending : from.findPendingTransfers()) {
+                Shard to = shard(pending.toId);
+                to.createLogTables();
+                if (redoDeposit(to, pending)) {
+                    redone++;
+                }
+                cleanup(from, to, pending.txId);
+                log.info("recovered transfer txId={}, from={}, to={}, amount={}", pending.txId, pending.fromId, pending.toId, pending.amount);
+            }
+        }
+        return redone;
+    }
+
+    private static boolean redoDeposit(Shard to, PendingTransfer pending) {
+        Boolean redone = to.transactionTemplate.execute(status -> {
+            if (to.exists("select 1 from member_transfer_applied where tx_id=?", pending.txId)) {
+                return false;
+            }
+            // 다른 recover 와 동시에 실행되면 중복 키 예외로 이 트랜잭션이 롤백된다.
+            to.update("insert into member_transfer_applied(tx_id) values(?)", pending.txId);
+            int[] counts = to.repository.addMoneyAll(Map.of(pending.toId, pending.amount));
+            if (counts[0] == 0) {
+                log.warn("deposit target missing txId={}, memberId={}", pending.txId, pending.toId);
+            }
+            return true;
+        });
+        return Boolean.TRUE.equals(redone);
+    }
+
+    private static void cleanup(Shard from, Shard to, String txId) {
+        // 로그를 먼저 지운다. 적용 표시만 남는 것은 무해하지만, 로그만 남고 표시가 없으면 입금이 두 번 반영된다.
+        from.update("delete from member_transfer_log where tx_id=?", txId);
+        to.update("delete from member_transfer_applied where tx_id=?", txId);
+    }
+
+    public long getCrossShardTransferCount() {
+        return crossShardTransfers.sum();
+    }
+
+    public long getInDoubtTransferCount() {
+        return inDoubtTransfers.sum();
+    }
+
+    @Override
+    public List<Member> findForUpdate(String memberId1, String memberId2) {
+        Shard shard1 = shard(memberId1);
+        if (shard1 == shard(memberId2)) {
+            return shard1.repository.findForUpdate(memberId1, memberId2);
+        }
+        return findAllForUpdate(List.of(memberId1, memberId2));
+    }
+
+    @Override
+    public List<Member> findAllForUpdate(Collection<String> memberIds) {
+        // 샤드 번호 순서로 잠가서 여러 샤드를 잠그는 호출끼리도 순서가 같다.
+        List<Member> members = new ArrayList<>(memberIds.size());
+        for (Map.Entry<Shard, List<String>> group : groupByShard(memberIds, Function.identity()).entrySet()) {
+            members.addAll(group.getKey().repository.findAllForUpdate(group.getValue()));
+        }
+        members.sort(Comparator.comparing(Member::getMemberId));
+        return members;
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltas) {
+        return scatter(new ArrayList<>(deltas.entrySet()), Map.Entry::getKey,
+                (shard, group) -> shard.repository.addMoneyAll(toMap(group)));
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneys) {
+        return scatter(new ArrayList<>(moneys.entrySet()), Map.Entry::getKey,
+                (shard, group) -> shard.repository.updateAll(toMap(group)));
+    }
+
+    private static Map<String, Integer> toMap(List<Map.Entry<String, Integer>> entries) {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : entries) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    /**
+     * 샤드를 순서대로 읽는다. 한 번에 한 샤드의 커서만 연다.
+     */
+    @Override
+    public Stream<Member> streamAll(int fetchSize) {
+        return shards.stream().flatMap(shard -> shard.repository.streamAll(fetchSize));
+    }
+
+    @Override
+    public Stream<Member> streamByMinMoney(int minMoney, int fetchSize) {
+        return shards.stream().flatMap(shard -> shard.repository.streamByMinMoney(minMoney, fetchSize));
+    }
+
+    @Override
+    public MemberPage findPageAfter(String lastMemberId, int limit) {
+        // 각 샤드에서 limit 개씩 읽어서 member_id 순서로 합친 뒤 앞의 limit 개를 사용한다.
+        List<Member> merged = new ArrayList<>();
+        boolean hasNext = false;
+        for (Shard shard : shards) {
+            MemberPage page = shard.repository.findPageAfter(lastMemberId, limit);
+            merged.addAll(page.getMembers());
+            hasNext |= page.hasNext();
+        }
+        merged.sort(Comparator.comparing(Member::getMemberId));
+        if (merged.size() > limit) {
+            hasNext = true;
+            merged = new ArrayList<>(merged.subList(0, limit));
+        }
+        String nextMemberId = hasNext ? merged.get(merged.size() - 1).getMemberId() : null;
+        return new MemberPage(merged, nextMemberId);
+    }
+
+    /**
+     * 항목을 샤드별로 나눠 실행하고, 샤드별 결과를 원래 순서로 되돌린다.
+     */
+    private <T> int[] scatter(Collection<T> items, Function<T, String> memberIdOf,
+                              BiFunction<Shard, List<T>, int[]> action) {
+        int[] results = new int[items.size()];
+        Map<Shard, List<Integer>> positions = new LinkedHashMap<>();
+        Map<Shard, List<T>> groups = new LinkedHashMap<>();
+        int position = 0;
+        for (T item : items) {
+            Shard shard = shard(memberIdOf.apply(item));
+            positions.computeIfAbsent(shard, s -> new ArrayList<>()).add(position++);
+            groups.computeIfAbsent(shard, s -> new ArrayList<>()).add(item);
+        }
+        for (Map.Entry<Shard, List<T>> group : groups.entrySet()) {
+            int[] counts = action.apply(group.getKey(), group.getValue());
+            List<Integer> shardPositions = positions.get(group.getKey());
+            for (int i = 0; i < counts.length; i++) {
+                results[shardPositions.get(i)] = counts[i];
+            }
+        }
+        return results;
+    }
+
+    private <T> Map<Shard, List<T>> groupByShard(Collection<T> items, Function<T, String> memberIdOf) {
+        Map<Shard, List<T>> groups = new TreeMap<>(Comparator.comparingInt(shard -> shard.index));
+        for (T item : items) {
+            groups.computeIfAbsent(shard(memberIdOf.apply(item)), s -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    private static final class PendingTransfer {
+        private final String txId;
+        private final String fromId;
+        private final String toId;
+        private final int amount;
+
+        PendingTransfer(String txId, String fromId, String toId, int amount) {
+            this.txId = txId;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.amount = amount;
+        }
+    }
+
+    /**
+     * 샤드 하나. 자기 커넥션 풀(DataSource), 저장소, 트랜잭션 매니저를 가진다.
+     */
+    private static final class Shard {
+        private final int index;
+        private final DataSource dataSource;
+        private final MemberRepository repository;
+        private final TransactionTemplate transactionTemplate;
+        private final TransactionTemplate joiningTransactionTemplate;
+        private volatile boolean logTablesCreated;
+
+        Shard(int index, DataSource dataSource) {
+            this.index = index;
+            this.dataSource = dataSource;
+            this.repository = new MemberRepositoryV4_1(dataSource);
+            DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+            this.transactionTemplate = new TransactionTemplate(transactionManager);
+            // 호출한 쪽 트랜잭션에 참여하면 커밋 순서를 지킬 수 없으므로 항상 새 로컬 트랜잭션을 연다.
+            this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            // 샤드 하나 안의 이체용. 호출한 쪽 트랜잭션이 있으면 참여한다.
+            this.joiningTransactionTemplate = new TransactionTemplate(transactionManager);
+        }
+
+        void createLogTables() {
+            if (logTablesCreated) {
+                return;
+            }
+            update("create table if not exists member_transfer_log (" +
+                    "tx_id varchar(36) primary key, " +
+                    "from_id varchar(10) not null, " +
+                    "to_id varchar(10) not null, " +
+                    "amount integer not null)");
+            update("create table if not exists member_transfer_applied (tx_id varchar(36) primary key)");
+            logTablesCreated = true;
+        }
+
+        List<PendingTransfer> findPendingTransfers() {
+            Connection con = null;
+            Statement stmt = null;
+            ResultSet rs = null;
+            try {
+                con = DataSourceUtils.getConnection(dataSource);
+                stmt = con.createStatement();
+                rs = stmt.executeQuery("select tx_id, from_id, to_id, amount from member_transfer_log");
+                List<PendingTransfer> pending = new ArrayList<>();
+                while (rs.next()) {
+                    pending.add(new PendingTransfer(rs.getString("tx_id"), rs.getString("from_id"),
+                            rs.getString("to_id"), rs.getInt("amount")));
+                }
+                return pending;
+            } catch (SQLException e) {
+                throw MyDbExceptionTranslator.H2.translate(e);
+            } finally {
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(stmt);
+                DataSourceUtils.releaseConnection(con, dataSource);
+            }
+        }
+
+        boolean exists(String sql, Object... parameters) {
+            Connection con = null;
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                con = DataSourceUtils.getConnection(dataSource);
+                pstmt = con.prepareStatement(sql);
+                bind(pstmt, parameters);
+                rs = pstmt.executeQuery();
+                return rs.next();
+            } catch (SQLException e) {
+                throw MyDbExceptionTranslator.H2.translate(e);
+            } finally {
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(pstmt);
+                DataSourceUtils.releaseConnection(con, dataSource);
+            }
+        }
+
+        int update(String sql, Object... parameters) {
+            Connection con = null;
+            PreparedStatement pstmt = null;
+            try {
+                // 트랜잭션 안에서 호출되면 그 트랜잭션의 커넥션을 사용한다.
+                con = DataSourceUtils.getConnection(dataSource);
+                pstmt = con.prepareStatement(sql);
+                bind(pstmt, parameters);
+                return pstmt.executeUpdate();
+            } catch (SQLException e) {
+                throw MyDbExceptionTranslator.H2.translate(e);
+            } finally {
+                JdbcUtils.closeStatement(pstmt);
+                DataSourceUtils.releaseConnection(con, dataSource);
+            }
+        }
+
+        private static void bind(PreparedStatement pstmt, Object... parameters) throws SQLException {
+            for (int i = 0; i < parameters.length; i++) {
+                pstmt.setObject(i + 1, parameters[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 트랜잭션 범위 1차 캐시 (Unit of Work)
+ * 트랜잭션 안에서 findById 로 읽은 회원을 기억해서, 같은 회원을 다시 읽으면 DB 를 거치지 않는다.
+ * update 는 바로 보내지 않고 바뀐 money 만 기록했다가 beforeCommit 에 updateAll 배치 하나로 보낸다.
+ * 바뀐 것이 없으면 아무것도 보내지 않고, 롤백되면 기록을 버린다.
+ * 그 외 메서드는 쌓인 변경을 먼저 보내고(flush) 1차 캐시를 비운 뒤 target 에 위임한다.
+ * 트랜잭션 밖에서는 target 에 그대로 위임한다.
+ * 세이브포인트(NESTED) 롤백은 기록한 변경을 되돌리지 못하므로 NESTED 트랜잭션과 같이 사용하지 않는다.
+ */
+public class UnitOfWorkMemberRepository implements MemberRepository {
+
+    private final MemberRepository target;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    public UnitOfWorkMemberRepository(MemberRepository target) {
+        this.target = target;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        UnitOfWork unitOfWork = currentUnitOfWork();
+        if (unitOfWork == null) {
+            return target.findById(memberId);
+        }
+        Member member = unitOfWork.members.get(memberId);
+        if (member != null) {
+            hits.increment();
+        } else {
+            member = target.findById(memberId);
+            Integer dirtyMoney = unitOfWork.dirty.get(memberId);
+            if (dirtyMoney != null) {
+                // 읽기 전에 update 한 회원은 아직 보내지 않은 값을 보여준다.
+                member.setMoney(dirtyMoney);
+            }
+            unitOfWork.members.put(memberId, member);
+        }
+        return copy(member);
+    }
+
+    @Override
+    public MemberLookup findAllById(Collection<String> memberIds) {
+        UnitOfWork unitOfWork = currentUnitOfWork();
+        if (unitOfWork == null) {
+            return target.findAllById(memberIds);
+        }
+        List<String> missing = new ArrayList<>();
+        for (String memberId : new LinkedHashSet<>(memberIds)) {
+            if (unitOfWork.members.containsKey(memberId)) {
+                hits.increment();
+            } else {
+                missing.add(memberId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (Member member : target.findAllById(missing).getMembers().values()) {
+                Integer dirtyMoney = unitOfWork.dirty.get(member.getMemberId());
+                if (dirtyMoney != null) {
+                    member.setMoney(dirtyMoney);
+                }
+                unitOfWork.members.put(member.getMemberId(), member);
+            }
+        }
+        Map<String, Member> found = new HashMap<>();
+        for (String memberId : memberIds) {
+            Member member = unitOfWork.members.get(memberId);
+            if (member != null) {
+                found.put(memberId, copy(member));
+            }
+        }
+        return MemberLookup.of(memberIds, found);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        UnitOfWork unitOfWork = currentUnitOfWork();
+        if (unitOfWork == null) {
+            target.update(memberId, money);
+            return;
+        }
+        unitOfWork.dirty.put(memberId, money);
+        Member member = unitOfWork.members.get(memberId);
+        if (member != null) {
+            member.setMoney(money);
+        }
+    }
+
+    /**
+     * 현재 트랜잭션에 쌓인 변경을 바로 보내고 1차 캐시를 비운다.
+     */
+    public void flush() {
+        UnitOfWork unitOfWork = currentUnitOfWork();
+        if (unitOfWork != null) {
+            flush(unitOfWork);
+        }
+    }
+
+    private void flush(UnitOfWork unitOfWork) {
+        if (!unitOfWork.dirty.isEmpty()) {
+            target.updateAll(unitOfWork.dirty);
+            flushes.increment();
+        }
+        unitOfWork.dirty.clear();
+        unitOfWork.members.clear();
+    }
+
+    @Override
+    public Member save(Member member) {
+        flush();
+        return target.save(member);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        flush();
+        target.delete(memberId);
+    }
+
+    @Override
+    public boolean compareAndUpdate(String memberId, long expectedVersion, int newMoney) {
+        flush();
+        return target.compareAndUpdate(memberId, expectedVersion, newMoney);
+    }
+
+    @Override
+    public int[] saveAll(Collection<Member> members) {
+        flush();
+        return target.saveAll(members);
+    }
+
+    @Override
+    public int[] saveAll(Iterator<Member> members) {
+        flush();
+        return target.saveAll(members);
+    }
+
+    @Override
+    public boolean upsert(Member member) {
+        flush();
+        return target.upsert(member);
+    }
+
+    @Override
+    public boolean insertIfAbsent(Member member) {
+        flush();
+        return target.insertIfAbsent(member);
+    }
+
+    @Override
+    public int[] insertAllIfAbsent(Collection<Member> members) {
+        flush();
+        return target.insertAllIfAbsent(members);
+    }
+
+    @Override
+    public void transfer(String fromId, String toId, int amount) {
+        flush();
+        target.transfer(fromId, toId, amount);
+    }
+
+    @Override
+    public List<Member> findForUpdate(String memberId1, String memberId2) {
+        flush();
+        return target.findForUpdate(memberId1, memberId2);
+    }
+
+    @Override
+    public List<Member> findAllForUpdate(Collection<String> memberIds) {
+        flush();
+        return target.findAllForUpdate(memberIds);
+    }
+
+    @Override
+    public int[] addMoneyAll(Map<String, Integer> deltas) {
+        flush();
+        return target.addMoneyAll(deltas);
+    }
+
+    @Override
+    public int[] updateAll(Map<String, Integer> moneys) {
+        flush();
+        return target.updateAll(moneys);
+    }
+
+    @Override
+    public Stream<Member> streamAll(int fetchSize) {
+        flush();
+        return target.streamAll(fetchSize);
+    }
+
+    @Override
+    public Stream<Member> streamByMinMoney(int minMoney, int fetchSize) {
+        flush();
+        return target.streamByMinMoney(minMoney, fetchSize);
+    }
+
+    @Override
+    public MemberPage findPageAfter(String lastMemberId, int limit) {
+        flush();
+        return target.findPageAfter(lastMemberId, limit);
+    }
+
+    /**
+     * 1차 캐시에서 찾아서 DB 조회를 생략한 횟수
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * 변경을 배치로 보낸 횟수
+     */
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    private UnitOfWork currentUnitOfWork() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()
+                || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        // 트랜잭션마다 Unit of Work 를 이 저장소를 키로 바인딩한다.
+        UnitOfWork unitOfWork = (UnitOfWork) TransactionSynchronizationManager.getResource(this);
+        if (unitOfWork == null) {
+            unitOfWork = new UnitOfWork();
+            TransactionSynchronizationManager.bindResource(this, unitOfWork);
+            TransactionSynchronizationManager.registerSynchronization(new UnitOfWorkSynchronization(unitOfWork));
+        }
+        return unitOfWork;
+    }
+
+    private static Member copy(Member member) {
+        // 호출한 쪽이 반환값을 바꿔도 1차 캐시가 바뀌지 않게 한다.
+        return new Member(member.getMemberId(), member.getMoney(), member.getVersion());
+    }
+
+    private static final class UnitOfWork {
+        private final Map<String, Member> members = new HashMap<>();
+        // member_id 순서로 보내서 같은 회원들을 바꾸는 트랜잭션끼리 락 순서가 같다.
+        private final Map<String, Integer> dirty = new TreeMap<>();
+    }
+
+    private class UnitOfWorkSynchronization implements TransactionSynchronization {
+
+        private final UnitOfWork unitOfWork;
+
+        UnitOfWorkSynchronization(UnitOfWork unitOfWork) {
+            this.unitOfWork = unitOfWork;
+        }
+
+        @Override
+        public void suspend() {
+            // REQUIRES_NEW 로 새 트랜잭션이 열리면 그 트랜잭션은 자기 Unit of Work 를 사용한다.
+            TransactionSynchronizationManager.unbindResourceIfPossible(UnitOfWorkMemberRepository.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(UnitOfWorkMemberRepository.this, unitOfWork);
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            flush(unitOfWork);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(UnitOfWorkMemberRepository.this);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package hello.jdbc.repository;
+
+/**
+ * upsert, insertIfAbsent 에 사용할 데이터베이스별 SQL
+ * 파라미터는 모두 (member_id, money) 순서다.
+ */
+public interface UpsertDialect {
+
+    /**
+     * 없을 때만 insert 한다. update count 는 insert 했으면 1, 이미 있으면 0 이어야 한다.
+     */
+    String insertIfAbsentSql();
+
+    /**
+     * 없으면 insert, 있으면 money 를 바꾸는 조회 SQL. 한 행, 한 컬럼으로 새로 insert 했는지(boolean) 를 반환해야 한다.
+     *
+     * @param versioned member 테이블에 version 컬럼이 있으면 update 할 때 version 도 올려야 한다.
+     */
+    String upsertSql(boolean versioned);
+}
@@ -0,0 +1,19 @@
+package hello.jdbc.repository.ex;
+
+// 커넥션이 끊어졌거나 데이터베이스에 연결할 수 없는 경우
+public class MyConnectionException extends MyDbException{
+    public MyConnectionException() {
+    }
+    public MyConnectionException(String message) {
+        super(message);
+    }
+    public MyConnectionException(String message, Throwable cause) {
+        super(message, cause);
+    }
+    public MyConnectionException(Throwable cause) {
+        super(cause);
+    }
+    public MyConnectionException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, writableStackTrace);
+    }
+}
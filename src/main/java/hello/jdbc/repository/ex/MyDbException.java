@@ -14,4 +14,10 @@ public class MyDbException extends RuntimeException{
     public MyDbException(Throwable cause) {
         super(cause);
     }
+    /**
+     * @param writableStackTrace false 면 스택 트레이스를 만들지 않는다. 자주 발생하고 복구하는 예외에 사용한다.
+     */
+    public MyDbException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, true, writableStackTrace);
+    }
 }
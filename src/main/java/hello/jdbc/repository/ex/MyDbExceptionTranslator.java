@@ -0,0 +1,121 @@
+package hello.jdbc.repository.ex;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SQLException 을 MyDbException 계층으로 변환한다.
+ * 벤더 에러 코드 -> SQLState -> SQLState 클래스(앞 2자리) 순서로 미리 만들어둔 표에서 찾는다.
+ * 중복 키, 락 충돌처럼 예상하고 복구하는 예외는 스택 트레이스 없이 만든다.
+ * 다른 데이터베이스는 에러 코드 표를 넘겨서 새로 만들면 된다.
+ */
+public class MyDbExceptionTranslator {
+
+    public enum Category {
+        DUPLICATE_KEY,
+        DEADLOCK,
+        LOCK_TIMEOUT,
+        LOCK_CONFLICT,
+        CONNECTION,
+        OTHER
+    }
+
+    public static final Map<Integer, Category> H2_ERROR_CODES;
+    public static final Map<String, Category> STANDARD_SQL_STATES;
+
+    static {
+        Map<Integer, Category> h2 = new HashMap<>();
+        h2.put(23505, Category.DUPLICATE_KEY);     // DUPLICATE_KEY_1
+        h2.put(40001, Category.DEADLOCK);          // DEADLOCK_1
+        h2.put(50200, Category.LOCK_TIMEOUT);      // LOCK_TIMEOUT_1
+        h2.put(90131, Category.LOCK_CONFLICT);     // CONCURRENT_UPDATE_1
+        h2.put(90067, Category.CONNECTION);        // CONNECTION_BROKEN_1
+        h2.put(90098, Category.CONNECTION);        // DATABASE_IS_CLOSED
+        h2.put(90121, Category.CONNECTION);        // DATABASE_CALLED_AT_SHUTDOWN
+        H2_ERROR_CODES = Collections.unmodifiableMap(h2);
+
+        Map<String, Category> states = new HashMap<>();
+        states.put("23505", Category.DUPLICATE_KEY);
+        states.put("40001", Category.DEADLOCK);
+        states.put("40P01", Category.DEADLOCK);
+        states.put("HYT00", Category.LOCK_TIMEOUT);
+        // 2자리는 SQLState 클래스 전체
+        states.put("08", Category.CONNECTION);
+        STANDARD_SQL_STATES = Collections.unmodifiableMap(states);
+    }
+
+    public static final MyDbExceptionTranslator H2 = new MyDbExceptionTranslator(H2_ERROR_CODES, STANDARD_SQL_STATES);
+
+    // 에러 코드는 정렬된 배열에서 이진 탐색한다. (박싱 없이 조회)
+    private final int[] errorCodes;
+    private final Category[] errorCodeCategories;
+    private final Map<String, Category> sqlStates;
+
+    public MyDbExceptionTranslator(Map<Integer, Category> errorCodes, Map<String, Category> sqlStates) {
+        Map<Integer, Category> sorted = new TreeMap<>(errorCodes);
+        this.errorCodes = new int[sorted.size()];
+        this.errorCodeCategories = new Category[sorted.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Category> entry : sorted.entrySet()) {
+            this.errorCodes[i] = entry.getKey();
+            this.errorCodeCategories[i] = entry.getValue();
+            i++;
+        }
+        this.sqlStates = new HashMap<>(sqlStates);
+    }
+
+    public MyDbException translate(SQLException e) {
+        return translate(e.toString(), e);
+    }
+
+    public MyDbException translate(String message, SQLException e) {
+        switch (classify(e)) {
+            case DUPLICATE_KEY:
+                return new MyDuplicateKeyException(message, e, false);
+            case DEADLOCK:
+                return new MyDeadlockException(message, e, false);
+            case LOCK_TIMEOUT:
+                return new MyLockTimeoutException(message, e, false);
+            case LOCK_CONFLICT:
+                return new MyLockConflictException(message, e, false);
+            case CONNECTION:
+                // 장애 상황이라 원인 추적을 위해 스택 트레이스를 남긴다.
+                return new MyConnectionException(message, e);
+            default:
+                return new MyDbException(message, e);
+        }
+    }
+
+    /**
+     * 배치 실행의 BatchUpdateException 은 실제 원인이 getNextException 에 연결되어 있어서 체인을 따라가며 찾는다.
+     */
+    public Category classify(SQLException e) {
+        for (SQLException ex = e; ex != null; ex = ex.getNextException()) {
+            Category category = classifyOne(ex);
+            if (category != Category.OTHER) {
+                return category;
+            }
+        }
+        return Category.OTHER;
+    }
+
+    private Category classifyOne(SQLException e) {
+        int index = Arrays.binarySearch(errorCodes, e.getErrorCode());
+        if (index >= 0) {
+            return errorCodeCategories[index];
+        }
+        String sqlState = e.getSQLState();
+        if (sqlState == null) {
+            return Category.OTHER;
+        }
+        Category category = sqlStates.get(sqlState);
+        if (category == null && sqlState.length() >= 2) {
+            category = sqlStates.get(sqlState.substring(0, 2));
+        }
+        return category == null ? Category.OTHER : category;
+    }
+}
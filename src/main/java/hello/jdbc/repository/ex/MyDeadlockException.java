@@ -0,0 +1,19 @@
+package hello.jdbc.repository.ex;
+
+// 데드락으로 트랜잭션이 희생된 경우. 트랜잭션을 다시 실행하면 성공할 수 있다.
+public class MyDeadlockException extends MyLockConflictException{
+    public MyDeadlockException() {
+    }
+    public MyDeadlockException(String message) {
+        super(message);
+    }
+    public MyDeadlockException(String message, Throwable cause) {
+        super(message, cause);
+    }
+    public MyDeadlockException(Throwable cause) {
+        super(cause);
+    }
+    public MyDeadlockException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, writableStackTrace);
+    }
+}
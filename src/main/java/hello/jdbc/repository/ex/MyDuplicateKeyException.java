@@ -12,4 +12,7 @@ public class MyDuplicateKeyException extends MyDbException{
     public MyDuplicateKeyException(Throwable cause) {
         super(cause);
     }
+    public MyDuplicateKeyException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, writableStackTrace);
+    }
 }
@@ -0,0 +1,19 @@
+package hello.jdbc.repository.ex;
+
+// 데드락, 락 대기 시간 초과처럼 트랜잭션을 다시 실행하면 성공할 수 있는 예외
+public class MyLockConflictException extends MyDbException{
+    public MyLockConflictException() {
+    }
+    public MyLockConflictException(String message) {
+        super(message);
+    }
+    public MyLockConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+    public MyLockConflictException(Throwable cause) {
+        super(cause);
+    }
+    public MyLockConflictException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, writableStackTrace);
+    }
+}
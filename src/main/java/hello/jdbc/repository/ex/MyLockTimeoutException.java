@@ -0,0 +1,19 @@
+package hello.jdbc.repository.ex;
+
+// 락 대기 시간을 초과한 경우
+public class MyLockTimeoutException extends MyLockConflictException{
+    public MyLockTimeoutException() {
+    }
+    public MyLockTimeoutException(String message) {
+        super(message);
+    }
+    public MyLockTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+    public MyLockTimeoutException(Throwable cause) {
+        super(cause);
+    }
+    public MyLockTimeoutException(String message, Throwable cause, boolean writableStackTrace) {
+        super(message, cause, writableStackTrace);
+    }
+}
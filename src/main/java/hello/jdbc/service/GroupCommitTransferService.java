@@ -0,0 +1,200 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Transfer;
+import hello.jdbc.domain.TransferResult;
+import hello.jdbc.repository.MemberRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 그룹 커밋 계좌이체
+ * submit 한 이체를 큐에 모으고, 커밋 스레드가 최대 maxBatch 개 또는 maxWait 동안 모인 이체를 하나의 트랜잭션으로 처리한다.
+ * 관련 회원을 모두 member_id 순서로 잠근 뒤 메모리에서 순서대로 적용하고, 잔액 변경은 배치 update 한 번으로 반영한다.
+ * 잘못된 이체는 그 건만 실패로 끝나고, 각 future 는 트랜잭션이 커밋된 뒤에 완료된다.
+ * future 의 후속 작업은 커밋 스레드에서 실행되므로 무거운 작업은 *Async 메서드로 연결한다.
+ */
+@Slf4j
+public class GroupCommitTransferService implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH = 100;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 5;
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private final MemberRepository memberRepository;
+    private final TransactionTemplate txTemplate;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final BlockingQueue<PendingTransfer> queue;
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    private final LongAdder committedGroups = new LongAdder();
+    private final LongAdder committedTransfers = new LongAdder();
+
+    public GroupCommitTransferService(MemberRepository memberRepository, PlatformTransactionManager transactionManager) {
+        this(memberRepository, transactionManager, DEFAULT_MAX_BATCH, DEFAULT_MAX_WAIT_MILLIS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public GroupCommitTransferService(MemberRepository memberRepository, PlatformTransactionManager transactionManager,
+                                      int maxBatch, long maxWaitMillis, int queueCapacity) {
+        this.memberRepository = memberRepository;
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.maxBatch = maxBatch;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.committer = new Thread(this::run, "transfer-group-committer");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * 큐가 가득 차 있으면 기다리지 않고 RejectedExecutionException 으로 완료된 future 를 반환한다.
+     */
+    public CompletableFuture<TransferResult> submit(String fromId, String toId, int money) {
+        PendingTransfer pending = new PendingTransfer(new Transfer(fromId, toId, money));
+        if (!running) {
+            pending.future.completeExceptionally(new RejectedExecutionException("transfer service closed"));
+        } else if (!queue.offer(pending)) {
+            pending.future.completeExceptionally(new RejectedExecutionException("transfer queue full"));
+        } else if (!running && queue.remove(pending)) {
+            // running 확인과 offer 사이에 종료되었다. 커밋 스레드가 가져가지 않았으면 아무도 완료하지 않으므로 여기서 실패시킨다.
+            pending.future.completeExceptionally(new RejectedExecutionException("transfer service closed"));
+        }
+        return pending.future;
+    }
+
+    public long getCommittedGroupCount() {
+        return committedGroups.sum();
+    }
+
+    public long getCommittedTransferCount() {
+        return committedTransfers.sum();
+    }
+
+    /**
+     * 새 이체는 받지 않고, 큐에 남은 이체를 모두 처리한 뒤 커밋 스레드를 종료한다.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        committer.join();
+    }
+
+    private void run() {
+        List<PendingTransfer> group = new ArrayList<>(maxBatch);
+        try {
+            while (running || !queue.isEmpty()) {
+                try {
+                    PendingTransfer first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    group.add(first);
+                    collect(group);
+                    commit(group);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    fail(group, new RejectedExecutionException("transfer service interrupted"));
+                    break;
+                } catch (RuntimeException e) {
+                    log.error("group commit error", e);
+                    fail(group, e);
+                } finally {
+                    group.clear();
+                }
+            }
+        } finally {
+            // 중단되어 끝나는 경우에도 큐에 남은 이체를 모두 실패로 끝내서 get() 으로 기다리는 호출자가 멈추지 않게 한다.
+            running = false;
+            List<PendingTransfer> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            fail(remaining, new RejectedExecutionException("transfer service closed"));
+        }
+    }
+
+    private static void fail(List<PendingTransfer> pendings, Throwable cause) {
+        // 이미 완료된 future 는 바뀌지 않는다.
+        for (PendingTransfer pending : pendings) {
+            pending.future.completeExceptionally(cause);
+        }
+    }
+
+    private void collect(List<PendingTransfer> group) throws InterruptedException {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (group.size() < maxBatch) {
+            // 이미 쌓여 있는 이체는 기다리지 않고 가져간다.
+            queue.drainTo(group, maxBatch - group.size());
+            long remaining = deadline - System.nanoTime();
+            if (group.size() >= maxBatch || remaining <= 0) {
+                return;
+            }
+            PendingTransfer next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            group.add(next);
+        }
+    }
+
+    private void commit(List<PendingTransfer> group) {
+        List<TransferResult> results;
+        try {
+            results = txTemplate.execute(status -> apply(group));
+        } catch (RuntimeException e) {
+            // DB 오류로 그룹 트랜잭션이 롤백되면 그룹의 모든 이체가 실패한다.
+            for (PendingTransfer pending : group) {
+                pending.future.completeExceptionally(e);
+            }
+            return;
+        }
+        committedGroups.increment();
+        committedTransfers.add(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).future.complete(results.get(i));
+        }
+    }
+
+    private List<TransferResult> apply(List<PendingTransfer> group) {
+        Set<String> memberIds = new TreeSet<>();
+        for (PendingTransfer pending : group) {
+            memberIds.add(pending.transfer.getFromId());
+            memberIds.add(pending.transfer.getToId());
+        }
+        TransferLedger ledger = new TransferLedger(memberRepository.findAllForUpdate(memberIds));
+
+        List<TransferResult> results = new ArrayList<>(group.size());
+        for (PendingTransfer pending : group) {
+            String failure = ledger.apply(pending.transfer);
+            results.add(failure == null
+                    ? TransferResult.success(pending.transfer)
+                    : TransferResult.failure(pending.transfer, failure));
+        }
+        Map<String, Integer> deltas = ledger.getDeltas();
+        if (!deltas.isEmpty()) {
+            memberRepository.addMoneyAll(deltas);
+        }
+        return results;
+    }
+
+    private static class PendingTransfer {
+        private final Transfer transfer;
+        private final CompletableFuture<TransferResult> future = new CompletableFuture<>();
+
+        PendingTransfer(Transfer transfer) {
+            this.transfer = transfer;
+        }
+    }
+}
@@ -3,11 +3,16 @@ package hello.jdbc.service;
 import hello.jdbc.domain.Member;
 import hello.jdbc.repository.MemberRepository;
 import hello.jdbc.repository.MemberRepositoryV3;
-import lombok.RequiredArgsConstructor;
+import hello.jdbc.repository.ex.MyLockConflictException;
+import hello.jdbc.repository.ex.MyLockTimeoutException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.SQLException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 예외 누수 문제 해결
@@ -15,15 +20,158 @@ import java.sql.SQLException;
  * MemberRepository 인터페이스 의존
  */
 @Slf4j
-@RequiredArgsConstructor
 public class MemberServiceV4 {
 
+    // 낙관적 이체에서 한 회원당 재시도 상한과 백오프(ms)
+    public static final int OPTIMISTIC_MAX_RETRIES = 10;
+    private static final long BACKOFF_BASE_MILLIS = 1;
+    private static final long BACKOFF_MAX_MILLIS = 50;
+
     // MemberRepository 인터페이스에 의존하도록 코드를 변경했다.
     private final MemberRepository memberRepository;
+    // 계좌이체 방식. 처리량 비교를 위해 바꿔서 사용할 수 있다.
+    private final TransferMode transferMode;
+
+    // 낙관적 이체 지표
+    private final LongAdder optimisticTransfers = new LongAdder();
+    private final LongAdder optimisticConflicts = new LongAdder();
+    // 한 번 이상 충돌한 이체 수
+    private final LongAdder conflictedTransfers = new LongAdder();
+
+    public MemberServiceV4(MemberRepository memberRepository) {
+        this(memberRepository, TransferMode.READ_MODIFY_WRITE);
+    }
+
+    public MemberServiceV4(MemberRepository memberRepository, TransferMode transferMode) {
+        this.memberRepository = memberRepository;
+        this.transferMode = transferMode;
+    }
 
     @Transactional
     public void accountTransfer(String fromId, String toId, int money) {
-        bizLogic(fromId, toId, money);
+        switch (transferMode) {
+            case RELATIVE:
+                relativeBizLogic(fromId, toId, money);
+                break;
+            case PESSIMISTIC:
+                pessimisticBizLogic(fromId, toId, money);
+                break;
+            case OPTIMISTIC:
+                optimisticBizLogic(fromId, toId, money);
+                break;
+            default:
+                bizLogic(fromId, toId, money);
+        }
+    }
+
+    private void relativeBizLogic(String fromId, String toId, int money) {
+        // 조회 없이 검증을 먼저 하고, 두 번의 상대 update 로 이체한다.
+        validation(toId);
+        memberRepository.transfer(fromId, toId, money);
+    }
+
+    private void pessimisticBizLogic(String fromId, String toId, int money) {
+        // 두 행을 항상 같은 순서로 잠가서 A->B, B->A 이체가 동시에 와도 데드락이 생기지 않는다.
+        List<Member> members = memberRepository.findForUpdate(fromId, toId);
+        Member fromMember = find(members, fromId);
+        Member toMember = find(members, toId);
+        memberRepository.update(fromId, fromMember.getMoney() - money);
+        validation(toMember);
+        memberRepository.update(toId, toMember.getMoney() + money);
+    }
+
+    private void optimisticBizLogic(String fromId, String toId, int money) {
+        optimisticTransfers.increment();
+        validation(toId);
+        // 성공한 compareAndUpdate 의 행 락은 커밋까지 유지된다. 두 회원을 항상 member_id 순서로 바꿔서
+        // A->B, B->A 이체가 동시에 와도 서로 상대 행을 기다리는 데드락이 생기지 않게 한다.
+        int retries;
+        try {
+            if (fromId.compareTo(toId) <= 0) {
+                retries = addMoney(fromId, -money);
+                retries += addMoney(toId, money);
+            } else {
+                retries = addMoney(toId, money);
+                retries += addMoney(fromId, -money);
+            }
+        } catch (MyLockConflictException e) {
+            conflictedTransfers.increment();
+            throw e;
+        }
+        if (retries > 0) {
+            conflictedTransfers.increment();
+        }
+    }
+
+    /**
+     * @return 충돌해서 다시 시도한 횟수
+     */
+    private int addMoney(String memberId, int delta) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Member member = memberRepository.findById(memberId);
+                if (memberRepository.compareAndUpdate(memberId, member.getVersion(), member.getMoney() + delta)) {
+                    return attempt;
+                }
+            } catch (MyLockTimeoutException e) {
+                // 다른 모드의 트랜잭션이 행을 오래 잡고 있으면 락 대기 시간이 지난다. 문장만 실패하므로 다시 시도한다.
+                // 데드락은 데이터베이스가 트랜잭션 전체를 롤백하므로 여기서 재시도하지 않고 호출한 쪽으로 보낸다.
+                log.debug("optimistic update lock timeout memberId={}", memberId);
+            }
+            optimisticConflicts.increment();
+            if (attempt >= OPTIMISTIC_MAX_RETRIES) {
+                throw new MyLockConflictException("optimistic update failed memberId=" + memberId + ", retries=" + attempt);
+            }
+            backoff(attempt);
+        }
+    }
+
+    private static void backoff(int attempt) {
+        // 지수 백오프에 full jitter 를 적용해서 충돌한 트랜잭션들이 같은 시점에 다시 부딪히지 않게 한다.
+        long ceiling = Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getOptimisticTransferCount() {
+        return optimisticTransfers.sum();
+    }
+
+    public long getOptimisticConflictCount() {
+        return optimisticConflicts.sum();
+    }
+
+    public long getConflictedTransferCount() {
+        return conflictedTransfers.sum();
+    }
+
+    /**
+     * 충돌률. 한 번 이상 충돌한 이체의 비율
+     */
+    public double getConflictRate() {
+        long transfers = optimisticTransfers.sum();
+        return transfers == 0 ? 0 : (double) conflictedTransfers.sum() / transfers;
+    }
+
+    /**
+     * 이체 한 건당 평균 재시도 횟수. 한 이체가 여러 번 충돌할 수 있으므로 충돌률보다 크거나 같다.
+     */
+    public double getRetriesPerTransfer() {
+        long transfers = optimisticTransfers.sum();
+        return transfers == 0 ? 0 : (double) optimisticConflicts.sum() / transfers;
+    }
+
+    private static Member find(List<Member> members, String memberId) {
+        for (Member member : members) {
+            if (member.getMemberId().equals(memberId)) {
+                return member;
+            }
+        }
+        throw new NoSuchElementException("member not found memberId" + memberId);
     }
 
     private void bizLogic(String fromId, String toId, int money) {
@@ -35,8 +183,12 @@ public class MemberServiceV4 {
     }
 
     private void validation(Member toMember) {
+        validation(toMember.getMemberId());
+    }
+
+    private void validation(String toId) {
         // 예외 상황을 테스트해보기 위해 toId 가 "ex" 인 경우 예외를 발생한다.
-        if (toMember.getMemberId().equals("ex")) {
+        if (toId.equals("ex")) {
             throw new IllegalStateException("이체 중 예외 발생");
         }
     }
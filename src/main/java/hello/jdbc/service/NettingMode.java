@@ -0,0 +1,11 @@
+package hello.jdbc.service;
+
+/**
+ * NettingTransferService 잔액 검증 방식
+ */
+public enum NettingMode {
+    // 이체를 순서대로 적용하면서 매 이체마다 잔액을 확인한다. 잔액이 부족한 이체만 실패한다.
+    SEQUENTIAL,
+    // 모든 이체를 상계한 최종 잔액만 확인한다. 음수가 되는 회원이 있으면 배치 전체를 롤백한다.
+    NET
+}
@@ -0,0 +1,80 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Transfer;
+import hello.jdbc.domain.TransferResult;
+import hello.jdbc.repository.MemberRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 상계(netting) 일괄 이체
+ * 이체 목록을 메모리에서 회원별 증감 하나로 합친 뒤, 하나의 트랜잭션에서 배치 상대 갱신 한 번으로 반영한다.
+ * DB 쓰기 횟수는 이체 건수가 아니라 관련 회원 수에 비례한다.
+ */
+@Slf4j
+public class NettingTransferService {
+
+    private final MemberRepository memberRepository;
+    private final TransactionTemplate txTemplate;
+    private final NettingMode mode;
+
+    public NettingTransferService(MemberRepository memberRepository, PlatformTransactionManager transactionManager) {
+        this(memberRepository, transactionManager, NettingMode.SEQUENTIAL);
+    }
+
+    public NettingTransferService(MemberRepository memberRepository, PlatformTransactionManager transactionManager, NettingMode mode) {
+        this.memberRepository = memberRepository;
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.mode = mode;
+    }
+
+    /**
+     * 금액 오류, 없는 회원 같은 잘못된 이체는 그 건만 실패로 돌려준다.
+     * NET 모드에서 최종 잔액이 음수가 되는 회원이 있으면 IllegalStateException 이 발생하고 아무것도 반영되지 않는다.
+     */
+    public List<TransferResult> transferAll(List<Transfer> transfers) {
+        if (transfers.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return txTemplate.execute(status -> net(transfers));
+    }
+
+    private List<TransferResult> net(List<Transfer> transfers) {
+        Set<String> memberIds = new TreeSet<>();
+        for (Transfer transfer : transfers) {
+            memberIds.add(transfer.getFromId());
+            memberIds.add(transfer.getToId());
+        }
+        // 관련 회원을 member_id 순서로 모두 잠근 뒤 메모리에서 계산한다.
+        TransferLedger ledger = new TransferLedger(memberRepository.findAllForUpdate(memberIds));
+
+        boolean sequential = mode == NettingMode.SEQUENTIAL;
+        List<TransferResult> results = new ArrayList<>(transfers.size());
+        for (Transfer transfer : transfers) {
+            String failure = ledger.apply(transfer, sequential);
+            results.add(failure == null
+                    ? TransferResult.success(transfer)
+                    : TransferResult.failure(transfer, failure));
+        }
+        if (!sequential) {
+            String overdrawn = ledger.findOverdrawn();
+            if (overdrawn != null) {
+                throw new IllegalStateException("잔액 부족 memberId=" + overdrawn + ", balance=" + ledger.balanceOf(overdrawn));
+            }
+        }
+
+        Map<String, Integer> deltas = ledger.getDeltas();
+        if (!deltas.isEmpty()) {
+            memberRepository.addMoneyAll(deltas);
+        }
+        log.debug("netting transfers={}, updates={}", transfers.size(), deltas.size());
+        return results;
+    }
+}
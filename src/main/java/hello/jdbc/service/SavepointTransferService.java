@@ -0,0 +1,60 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Transfer;
+import hello.jdbc.domain.TransferResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 세이브포인트 일괄 이체
+ * 전체 이체를 하나의 트랜잭션에서 처리하고, 이체마다 NESTED 전파로 세이브포인트를 건다.
+ * 실패한 이체는 자기 세이브포인트까지만 롤백되고 나머지는 마지막에 한 번에 커밋된다.
+ */
+@Slf4j
+public class SavepointTransferService {
+
+    private final MemberServiceV4 memberService;
+    private final TransactionTemplate batchTx;
+    private final TransactionTemplate itemTx;
+
+    /**
+     * @param memberService 이체 로직. @Transactional 프록시여도 된다. (REQUIRED 로 세이브포인트 트랜잭션에 참여한다)
+     */
+    public SavepointTransferService(MemberServiceV4 memberService, PlatformTransactionManager transactionManager) {
+        this.memberService = memberService;
+        this.batchTx = new TransactionTemplate(transactionManager);
+        this.itemTx = new TransactionTemplate(transactionManager);
+        // DataSourceTransactionManager 는 이미 트랜잭션이 있으면 Connection.setSavepoint 로 처리한다.
+        this.itemTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_NESTED);
+    }
+
+    /**
+     * @return 요청 순서대로 이체별 결과
+     */
+    public List<TransferResult> transferAll(List<Transfer> transfers) {
+        return batchTx.execute(status -> {
+            List<TransferResult> results = new ArrayList<>(transfers.size());
+            for (Transfer transfer : transfers) {
+                results.add(transfer(transfer));
+            }
+            return results;
+        });
+    }
+
+    private TransferResult transfer(Transfer transfer) {
+        try {
+            itemTx.executeWithoutResult(status ->
+                    memberService.accountTransfer(transfer.getFromId(), transfer.getToId(), transfer.getMoney()));
+            return TransferResult.success(transfer);
+        } catch (RuntimeException e) {
+            // 세이브포인트까지 롤백된 상태이므로 배치는 계속 진행한다.
+            log.debug("transfer rolled back to savepoint transfer={}", transfer, e);
+            return TransferResult.failure(transfer, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.Transfer;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 잠근 회원들의 잔액을 메모리에 두고 이체를 순서대로 적용한다.
+ * 적용이 끝나면 회원별 증감만 모아서 한 번의 배치 update 로 반영할 수 있다.
+ */
+class TransferLedger {
+
+    private final Map<String, Integer> balances = new HashMap<>();
+    private final Map<String, Integer> deltas = new LinkedHashMap<>();
+
+    TransferLedger(List<Member> members) {
+        for (Member member : members) {
+            balances.put(member.getMemberId(), member.getMoney());
+        }
+    }
+
+    /**
+     * @return 실패 이유. 성공하면 null 이고, 실패한 이체는 잔액에 반영하지 않는다.
+     */
+    String apply(Transfer transfer) {
+        return apply(transfer, true);
+    }
+
+    /**
+     * @param checkBalance false 면 잔액 검사 없이 적용한다. 잔액은 모든 이체를 적용한 뒤 findOverdrawn 으로 확인한다.
+     */
+    String apply(Transfer transfer, boolean checkBalance) {
+        String failure = validate(transfer, checkBalance);
+        if (failure != null) {
+            return failure;
+        }
+        add(transfer.getFromId(), -transfer.getMoney());
+        add(transfer.getToId(), transfer.getMoney());
+        return null;
+    }
+
+    /**
+     * 0 이 아닌 회원별 증감. 잠금 순서와 맞추기 위해 member_id 순서로 반환한다.
+     */
+    Map<String, Integer> getDeltas() {
+        Map<String, Integer> sorted = new LinkedHashMap<>();
+        deltas.entrySet().stream()
+                .filter(delta -> delta.getValue() != 0)
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(delta -> sorted.put(delta.getKey(), delta.getValue()));
+        return sorted;
+    }
+
+    Integer balanceOf(String memberId) {
+        return balances.get(memberId);
+    }
+
+    /**
+     * @return 잔액이 음수가 된 회원. 없으면 null
+     */
+    String findOverdrawn() {
+        return balances.entrySet().stream()
+                .filter(balance -> balance.getValue() < 0)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .findFirst()
+                .orElse(null);
+    }
+
+    private String validate(Transfer transfer, boolean checkBalance) {
+        if (transfer.getMoney() <= 0) {
+            return "이체 금액 오류 money=" + transfer.getMoney();
+        }
+        if (transfer.getFromId().equals(transfer.getToId())) {
+            return "같은 회원에게 이체 memberId=" + transfer.getFromId();
+        }
+        Integer fromMoney = balances.get(transfer.getFromId());
+        if (fromMoney == null) {
+            return "member not found memberId" + transfer.getFromId();
+        }
+        if (!balances.containsKey(transfer.getToId())) {
+            return "member not found memberId" + transfer.getToId();
+        }
+        // 예외 상황을 테스트해보기 위해 toId 가 "ex" 인 경우 실패한다.
+        if (transfer.getToId().equals("ex")) {
+            return "이체 중 예외 발생";
+        }
+        if (checkBalance && fromMoney < transfer.getMoney()) {
+            return "잔액 부족 memberId=" + transfer.getFromId() + ", amount=" + transfer.getMoney();
+        }
+        return null;
+    }
+
+    private void add(String memberId, int money) {
+        balances.merge(memberId, money, Integer::sum);
+        deltas.merge(memberId, money, Integer::sum);
+    }
+}
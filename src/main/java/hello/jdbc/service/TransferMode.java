@@ -0,0 +1,15 @@
+package hello.jdbc.service;
+
+/**
+ * MemberServiceV4 계좌이체 방식
+ */
+public enum TransferMode {
+    // 두 회원을 조회하고 계산한 금액으로 update 한다. (기존 방식)
+    READ_MODIFY_WRITE,
+    // 조회 없이 money = money - ? 상대 갱신 두 번으로 이체한다.
+    RELATIVE,
+    // 두 회원 행을 member_id 순서로 한 번에 select ... for update 로 잠근 뒤 update 한다.
+    PESSIMISTIC,
+    // 락 없이 version 을 비교해서 update 하고, 충돌하면 다시 읽어서 재시도한다. member 테이블에 version 컬럼이 필요하다.
+    OPTIMISTIC
+}
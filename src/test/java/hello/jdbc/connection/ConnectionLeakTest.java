@@ -0,0 +1,253 @@
+package hello.jdbc.connection;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV0;
+import hello.jdbc.repository.MemberRepositoryV1;
+import hello.jdbc.repository.MemberRepositoryV2;
+import hello.jdbc.repository.MemberRepositoryV3;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import hello.jdbc.service.MemberServiceV1;
+import hello.jdbc.service.MemberServiceV2;
+import hello.jdbc.service.MemberServiceV3_1;
+import hello.jdbc.service.MemberServiceV3_2;
+import hello.jdbc.service.MemberServiceV3_3;
+import hello.jdbc.service.MemberServiceV4;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 모든 저장소 세대와 서비스가 성공, 실패 경로 모두에서 커넥션을 반납하는지 확인한다.
+ */
+class ConnectionLeakTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    DriverManagerDataSource rawDataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+    LeakDetectingDataSource dataSource;
+
+    @BeforeEach
+    void before() {
+        dataSource = new LeakDetectingDataSource(rawDataSource, 1000, 5000, 1, false);
+    }
+
+    @AfterEach
+    void after() throws InterruptedException {
+        assertThat(dataSource.getOpenConnections()).isEmpty();
+        dataSource.close();
+        MemberRepositoryV4_1 cleaner = new MemberRepositoryV4_1(rawDataSource);
+        cleaner.delete(MEMBER_A);
+        cleaner.delete(MEMBER_B);
+        cleaner.delete(MEMBER_EX);
+    }
+
+    @Test
+    void repositoryV0() throws SQLException {
+        // V0 는 DBConnectionUtil 의 풀을 직접 사용하므로 풀의 사용 중 커넥션 수로 확인한다.
+        MemberRepositoryV0 repository = new MemberRepositoryV0();
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.finById(MEMBER_A);
+        repository.update(MEMBER_A, 20000);
+        repository.delete(MEMBER_A);
+
+        HikariDataSource pool = DBConnectionUtil.factory().getDataSource().unwrap(HikariDataSource.class);
+        assertThat(pool.getHikariPoolMXBean().getActiveConnections()).isZero();
+    }
+
+    @Test
+    void repositoryV1() throws SQLException {
+        MemberRepositoryV1 repository = new MemberRepositoryV1(dataSource);
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.finById(MEMBER_A);
+        repository.update(MEMBER_A, 20000);
+        assertThatThrownBy(() -> repository.save(new Member(MEMBER_A, 10000))).isInstanceOf(SQLException.class);
+        repository.delete(MEMBER_A);
+    }
+
+    @Test
+    void repositoryV2() throws SQLException {
+        MemberRepositoryV2 repository = new MemberRepositoryV2(dataSource);
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.finById(MEMBER_A);
+        repository.update(MEMBER_A, 20000);
+        repository.delete(MEMBER_A);
+    }
+
+    @Test
+    void repositoryV3() throws SQLException {
+        MemberRepositoryV3 repository = new MemberRepositoryV3(dataSource);
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.finById(MEMBER_A);
+        repository.update(MEMBER_A, 20000);
+        repository.delete(MEMBER_A);
+    }
+
+    @Test
+    void repositoryV4_1() {
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource);
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 10000));
+        repository.findById(MEMBER_A);
+        repository.transfer(MEMBER_A, MEMBER_B, 1000);
+        repository.findPageAfter(null, 10);
+        try (Stream<Member> members = repository.streamAll()) {
+            // 끝까지 읽지 않고 닫아도 커넥션을 반납한다.
+            members.findFirst();
+        }
+        repository.upsert(new Member(MEMBER_A, 500));
+    }
+
+    @Test
+    void serviceV1() throws SQLException {
+        MemberRepositoryV1 repository = new MemberRepositoryV1(dataSource);
+        saveMembers(repository::save);
+        MemberServiceV1 service = new MemberServiceV1(repository);
+
+        service.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        assertThatThrownBy(() -> service.accountTransfer(MEMBER_A, MEMBER_EX, 1000)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void serviceV2() throws SQLException {
+        MemberRepositoryV2 repository = new MemberRepositoryV2(dataSource);
+        saveMembers(repository::save);
+        MemberServiceV2 service = new MemberServiceV2(dataSource, repository);
+
+        service.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        assertThatThrownBy(() -> service.accountTransfer(MEMBER_A, MEMBER_EX, 1000)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void serviceV3_1() throws SQLException {
+        MemberRepositoryV3 repository = new MemberRepositoryV3(dataSource);
+        saveMembers(repository::save);
+        MemberServiceV3_1 service = new MemberServiceV3_1(new DataSourceTransactionManager(dataSource), repository);
+
+        service.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        assertThatThrownBy(() -> service.accountTransfer(MEMBER_A, MEMBER_EX, 1000)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void serviceV3_2() throws SQLException {
+        MemberRepositoryV3 repository = new MemberRepositoryV3(dataSource);
+        saveMembers(repository::save);
+        MemberServiceV3_2 service = new MemberServiceV3_2(new DataSourceTransactionManager(dataSource), repository);
+
+        service.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        assertThatThrownBy(() -> service.accountTransfer(MEMBER_A, MEMBER_EX, 1000)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void serviceV3_3() throws SQLException {
+        MemberRepositoryV3 repository = new MemberRepositoryV3(dataSource);
+        saveMembers(repository::save);
+        MemberServiceV3_3 service = transactional(new MemberServiceV3_3(repository));
+
+        service.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        assertThatThrownBy(() -> service.accountTransfer(MEMBER_A, MEMBER_EX, 1000)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void serviceV4() throws SQLException {
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource);
+        saveMembers(repository::save);
+        MemberServiceV4 service = transactional(new MemberServiceV4(repository));
+
+        service.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        assertThatThrownBy(() -> service.accountTransfer(MEMBER_A, MEMBER_EX, 1000)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void detectLeak() throws SQLException, InterruptedException {
+        LeakDetectingDataSource detector = new LeakDetectingDataSource(rawDataSource, 1000, 0, 1, false);
+        Connection leaked = detector.getConnection();
+
+        assertThat(detector.checkLeaks()).hasSize(1);
+        // 대여 위치에 이 테스트 메서드가 남는다.
+        assertThat(detector.getOpenConnections().get(0).getSite())
+                .anyMatch(frame -> frame.getMethodName().equals("detectLeak"));
+        assertThat(detector.getLeakCount()).isEqualTo(1);
+
+        leaked.close();
+        assertThat(detector.getOpenConnections()).isEmpty();
+        detector.close();
+    }
+
+    @Test
+    void failOnBudgetExceeded() throws SQLException, InterruptedException {
+        LeakDetectingDataSource detector = new LeakDetectingDataSource(rawDataSource, 0, 5000, 0, true);
+        new MemberRepositoryV4_1(rawDataSource).save(new Member(MEMBER_A, 10000));
+
+        try (Connection con = detector.getConnection(); Statement stmt = con.createStatement()) {
+            con.setAutoCommit(false);
+            stmt.executeUpdate("update member set money=0 where member_id='memberA'");
+            Thread.sleep(1);
+            // 보유 예산(0ms)을 넘겼으므로 커밋 대신 롤백된다.
+            assertThatThrownBy(con::commit).isInstanceOf(SQLException.class);
+            con.setAutoCommit(true);
+        }
+
+        assertThat(new MemberRepositoryV4_1(rawDataSource).findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(detector.getLongHoldCount()).isEqualTo(1);
+        detector.close();
+    }
+
+    @Test
+    void stackedWithTracingSharesOneWrapper() throws SQLException, InterruptedException {
+        List<ConnectionEvent> events = Collections.synchronizedList(new ArrayList<>());
+        ConnectionTracer tracer = new ConnectionTracer(64, 1, 1000, 10, events::add);
+        TracingDataSource tracing = new TracingDataSource(dataSource, tracer);
+
+        Connection con = tracing.getConnection();
+        // 추적과 누수 탐지를 겹쳐도 래퍼는 하나이고, 그 안은 드라이버 커넥션이다.
+        assertThat(con).isInstanceOf(ObservedConnection.class);
+        assertThat(((ConnectionProxy) con).getTargetConnection()).isNotInstanceOf(ObservedConnection.class);
+        assertThat(dataSource.getOpenConnections()).hasSize(1);
+
+        con.close();
+        tracer.close();
+
+        assertThat(dataSource.getOpenConnections()).isEmpty();
+        assertThat(events).extracting(ConnectionEvent::getType).containsExactly(
+                ConnectionEvent.Type.BORROW, ConnectionEvent.Type.RETURN);
+    }
+
+    private void saveMembers(MemberSaver saver) throws SQLException {
+        saver.save(new Member(MEMBER_A, 10000));
+        saver.save(new Member(MEMBER_B, 10000));
+        saver.save(new Member(MEMBER_EX, 10000));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T transactional(T target) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new TransactionInterceptor(new DataSourceTransactionManager(dataSource), new AnnotationTransactionAttributeSource()));
+        return (T) proxyFactory.getProxy();
+    }
+
+    interface MemberSaver {
+        Member save(Member member) throws SQLException;
+    }
+}
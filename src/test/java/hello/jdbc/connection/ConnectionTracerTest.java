@@ -0,0 +1,82 @@
+package hello.jdbc.connection;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectionTracerTest {
+
+    List<ConnectionEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void traceRepository() throws InterruptedException {
+        ConnectionTracer tracer = new ConnectionTracer(64, 1, 1000, 10, events::add);
+        TracingDataSource dataSource = new TracingDataSource(new DriverManagerDataSource(URL, USERNAME, PASSWORD), tracer);
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource);
+
+        repository.save(new Member("traceA", 10000));
+        repository.findById("traceA");
+        repository.delete("traceA");
+        tracer.close();
+
+        // 대여 3번, 반납 3번
+        assertThat(events).extracting(ConnectionEvent::getType).containsExactly(
+                ConnectionEvent.Type.BORROW, ConnectionEvent.Type.RETURN,
+                ConnectionEvent.Type.BORROW, ConnectionEvent.Type.RETURN,
+                ConnectionEvent.Type.BORROW, ConnectionEvent.Type.RETURN);
+        assertThat(events.get(0).getBorrowId()).isEqualTo(events.get(1).getBorrowId());
+        assertThat(events.get(1).getHoldNanos()).isPositive();
+    }
+
+    @Test
+    void returnIsTracedOnce() throws SQLException, InterruptedException {
+        ConnectionTracer tracer = new ConnectionTracer(64, 1, 1000, 10, events::add);
+        TracingDataSource dataSource = new TracingDataSource(new DriverManagerDataSource(URL, USERNAME, PASSWORD), tracer);
+
+        Connection con = dataSource.getConnection();
+        assertThat(((ConnectionProxy) con).getTargetConnection()).isNotInstanceOf(ObservedConnection.class);
+        con.close();
+        con.close();
+        tracer.close();
+
+        assertThat(events).extracting(ConnectionEvent::getType).containsExactly(
+                ConnectionEvent.Type.BORROW, ConnectionEvent.Type.RETURN);
+    }
+
+    @Test
+    void overflow() throws InterruptedException {
+        // 버퍼를 비우기 전에 100개를 기록하면 마지막 8개만 남는다.
+        ConnectionTracer tracer = new ConnectionTracer(8, 1, 1000, 60_000, events::add);
+        for (int i = 0; i < 100; i++) {
+            tracer.borrowed(i, true);
+        }
+        tracer.close();
+
+        assertThat(events).extracting(ConnectionEvent::getBorrowId).containsExactly(92L, 93L, 94L, 95L, 96L, 97L, 98L, 99L);
+        assertThat(tracer.getDroppedCount()).isEqualTo(92);
+    }
+
+    @Test
+    void slowReturnIsAlwaysTraced() throws InterruptedException {
+        ConnectionTracer tracer = new ConnectionTracer(8, 1000, 5, 60_000, events::add);
+
+        // 샘플링되지 않은 대여
+        tracer.borrowed(1, false);
+        tracer.returned(1, 1_000_000, false);
+        tracer.returned(2, 10_000_000, false);
+        tracer.close();
+
+        assertThat(events).extracting(ConnectionEvent::getBorrowId).containsExactly(2L);
+    }
+}
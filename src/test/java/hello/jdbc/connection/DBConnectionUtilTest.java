@@ -4,6 +4,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -15,4 +16,16 @@ public class DBConnectionUtilTest {
         Connection connection = DBConnectionUtil.getConnection();
         assertThat(connection).isNotNull();
     }
+
+    @Test
+    void pooledConnection() throws SQLException {
+        // close() 하면 풀로 반납되고, 획득 시간이 히스토그램에 기록된다.
+        Connection con1 = DBConnectionUtil.getConnection();
+        con1.close();
+        Connection con2 = DBConnectionUtil.getConnection();
+        con2.close();
+
+        log.info("acquireTime={}", DBConnectionUtil.factory().getAcquireTime().snapshot());
+        assertThat(DBConnectionUtil.factory().getAcquireTime().snapshot().getCount()).isGreaterThanOrEqualTo(2);
+    }
 }
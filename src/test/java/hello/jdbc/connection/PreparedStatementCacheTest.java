@@ -0,0 +1,142 @@
+package hello.jdbc.connection;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Slf4j
+class PreparedStatementCacheTest {
+
+    HikariDataSource dataSource;
+    PreparedStatementCache statementCache;
+
+    @BeforeEach
+    void beforeEach() {
+        statementCache = new PreparedStatementCache(2);
+        // 커넥션 하나짜리 풀. 물리 커넥션이 닫히면 캐시를 비운다.
+        dataSource = new HikariDataSource();
+        dataSource.setDataSource(statementCache.invalidateOnClose(new DriverManagerDataSource(URL, USERNAME, PASSWORD)));
+        dataSource.setMaximumPoolSize(1);
+    }
+
+    @AfterEach
+    void afterEach() {
+        dataSource.close();
+    }
+
+    @Test
+    void reuseAcrossBorrows() {
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource, MemberRepositoryV4_1.DEFAULT_BATCH_SIZE, statementCache);
+        Member member = new Member("memberCache", 10000);
+        repository.save(member);
+        try {
+            // 트랜잭션 밖의 두 호출은 커넥션을 따로 빌리지만 풀에는 물리 커넥션이 하나뿐이다.
+            repository.findById(member.getMemberId());
+            repository.findById(member.getMemberId());
+
+            log.info("hit={}, miss={}", statementCache.getHitCount(), statementCache.getMissCount());
+            assertThat(statementCache.getHitCount()).isEqualTo(1);
+            assertThat(statementCache.getConnectionCount()).isEqualTo(1);
+        } finally {
+            repository.delete(member.getMemberId());
+        }
+    }
+
+    @Test
+    void reuseWithinTransaction() {
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource, MemberRepositoryV4_1.DEFAULT_BATCH_SIZE, statementCache);
+        TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        Member member = new Member("memberCache", 10000);
+        repository.save(member);
+        try {
+            txTemplate.executeWithoutResult(status -> {
+                repository.findById(member.getMemberId());
+                repository.findById(member.getMemberId());
+                repository.findById(member.getMemberId());
+            });
+        } finally {
+            repository.delete(member.getMemberId());
+        }
+
+        assertThat(statementCache.getHitCount()).isEqualTo(2);
+        // 커밋 후에도 물리 커넥션의 캐시는 남는다.
+        assertThat(statementCache.getConnectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void reuseThroughWrappedConnection() throws InterruptedException {
+        // ObservedConnection 으로 감싼 커넥션을 빌려도 release 는 같은 물리 커넥션의 캐시로 돌려준다.
+        LeakDetectingDataSource detector = new LeakDetectingDataSource(dataSource, 1000, 5000, 0, false);
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(detector, MemberRepositoryV4_1.DEFAULT_BATCH_SIZE, statementCache);
+        Member member = new Member("memberCache", 10000);
+        repository.save(member);
+        try {
+            repository.findById(member.getMemberId());
+            repository.findById(member.getMemberId());
+
+            assertThat(statementCache.getHitCount()).isEqualTo(1);
+            assertThat(detector.getOpenConnections()).isEmpty();
+        } finally {
+            repository.delete(member.getMemberId());
+            detector.close();
+        }
+    }
+
+    @Test
+    void invalidateOnPhysicalClose() throws SQLException {
+        PreparedStatement pstmt;
+        try (Connection con = dataSource.getConnection()) {
+            pstmt = statementCache.prepare(con, "select 1");
+            statementCache.release(con, pstmt);
+        }
+        assertThat(pstmt.isClosed()).isFalse();
+
+        // 풀을 닫으면 물리 커넥션이 닫히면서 캐시도 비운다.
+        dataSource.close();
+
+        assertThat(pstmt.isClosed()).isTrue();
+        assertThat(statementCache.getConnectionCount()).isZero();
+        assertThat(statementCache.getInvalidationCount()).isEqualTo(1);
+    }
+
+    @Test
+    void lruEviction() throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement first = statementCache.prepare(con, "select 1");
+            statementCache.release(con, first);
+            statementCache.release(con, statementCache.prepare(con, "select 2"));
+            statementCache.release(con, statementCache.prepare(con, "select 3"));
+
+            // 가장 오래 사용하지 않은 "select 1" 이 닫힌다.
+            assertThat(statementCache.getEvictionCount()).isEqualTo(1);
+            assertThat(first.isClosed()).isTrue();
+        }
+    }
+
+    @Test
+    void invalidate() throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            PreparedStatement pstmt = statementCache.prepare(con, "select 1");
+            statementCache.release(con, pstmt);
+
+            statementCache.invalidate(con);
+
+            assertThat(pstmt.isClosed()).isTrue();
+            assertThat(statementCache.getConnectionCount()).isZero();
+        }
+    }
+}
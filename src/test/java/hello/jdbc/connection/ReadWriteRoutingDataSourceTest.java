@@ -0,0 +1,194 @@
+package hello.jdbc.connection;
+
+import hello.jdbc.connection.ReadWriteRoutingDataSource.Route;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * primary 는 ConnectionConst 의 H2 서버, 복제본은 메모리 H2 두 개를 사용한다.
+ * 복제는 하지 않고 같은 회원을 서로 다른 금액으로 넣어서 어디서 읽었는지 확인한다.
+ */
+class ReadWriteRoutingDataSourceTest {
+
+    public static final String MEMBER_A = "memberA";
+
+    DriverManagerDataSource primary = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+    DriverManagerDataSource replica1 = new DriverManagerDataSource("jdbc:h2:mem:replica1;DB_CLOSE_DELAY=-1", USERNAME, PASSWORD);
+    DriverManagerDataSource replica2 = new DriverManagerDataSource("jdbc:h2:mem:replica2;DB_CLOSE_DELAY=-1", USERNAME, PASSWORD);
+
+    ReadWriteRoutingDataSource routing;
+
+    @BeforeEach
+    void before() throws SQLException {
+        createReplicaTable(replica1);
+        createReplicaTable(replica2);
+        new MemberRepositoryV4_1(primary).save(new Member(MEMBER_A, 10000));
+        new MemberRepositoryV4_1(replica1).save(new Member(MEMBER_A, 5000));
+        new MemberRepositoryV4_1(replica2).save(new Member(MEMBER_A, 7000));
+    }
+
+    @AfterEach
+    void after() throws InterruptedException {
+        if (routing != null) {
+            routing.close();
+        }
+        new MemberRepositoryV4_1(primary).delete(MEMBER_A);
+    }
+
+    @Test
+    void readOnlyTransactionGoesToReplica() {
+        routing = new ReadWriteRoutingDataSource(primary, List.of(replica1), ReplicaSelection.ROUND_ROBIN, 0);
+        DataSource dataSource = routing.lazyConnectionProxy();
+        MemberRepositoryV4_1 repository = new MemberRepositoryV4_1(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+
+        assertThat(readOnly.execute(status -> repository.findById(MEMBER_A).getMoney())).isEqualTo(5000);
+        assertThat(readWrite.execute(status -> repository.findById(MEMBER_A).getMoney())).isEqualTo(10000);
+        // 힌트 없는 트랜잭션 밖 호출은 primary
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(routing.getReplicaRouteCount()).isEqualTo(1);
+    }
+
+    @Test
+    void nonTransactionalReadGoesToReplica() {
+        routing = new ReadWriteRoutingDataSource(primary, List.of(replica1), ReplicaSelection.ROUND_ROBIN, 0);
+        MemberRepository repository = routedRepository(new ReadYourWritesWindow(60_000));
+
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+        // 락을 잡는 조회는 primary
+        assertThat(repository.findAllForUpdate(List.of(MEMBER_A))).extracting(Member::getMoney).containsExactly(10000);
+    }
+
+    @Test
+    void readYourWrites() {
+        routing = new ReadWriteRoutingDataSource(primary, List.of(replica1), ReplicaSelection.ROUND_ROBIN, 0);
+        MemberRepository repository = routedRepository(new ReadYourWritesWindow(60_000));
+
+        repository.update(MEMBER_A, 20000);
+
+        // 방금 쓴 회원은 window 동안 primary 에서 읽는다.
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(20000);
+    }
+
+    @Test
+    void readYourWritesAfterCommit() {
+        routing = new ReadWriteRoutingDataSource(primary, List.of(replica1), ReplicaSelection.ROUND_ROBIN, 0);
+        DataSource dataSource = routing.lazyConnectionProxy();
+        MemberRepository repository = ReplicaRoutingInterceptor.instrument(new MemberRepositoryV4_1(dataSource), new ReadYourWritesWindow(60_000));
+        TransactionTemplate readWrite = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        TransactionTemplate readOnly = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        readOnly.setReadOnly(true);
+
+        readWrite.executeWithoutResult(status -> repository.update(MEMBER_A, 20000));
+
+        // 읽기 전용 트랜잭션이어도 첫 조회 회원이 window 안에 있으면 primary 커넥션을 얻는다.
+        assertThat(readOnly.execute(status -> repository.findById(MEMBER_A).getMoney())).isEqualTo(20000);
+    }
+
+    @Test
+    void readYourWritesWindowExpires() throws InterruptedException {
+        routing = new ReadWriteRoutingDataSource(primary, List.of(replica1), ReplicaSelection.ROUND_ROBIN, 0);
+        MemberRepository repository = routedRepository(new ReadYourWritesWindow(1));
+
+        repository.update(MEMBER_A, 20000);
+        Thread.sleep(10);
+
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+    }
+
+    @Test
+    void roundRobin() {
+        routing = new ReadWriteRoutingDataSource(primary, List.of(replica1, replica2), ReplicaSelection.ROUND_ROBIN, 0);
+        MemberRepository repository = routedRepository(new ReadYourWritesWindow(60_000));
+
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+    }
+
+    @Test
+    void leastLoaded() throws SQLException {
+        routing = new ReadWriteRoutingDataSource(primary, List.of(replica1, replica2), ReplicaSelection.LEAST_LOADED, 0);
+        MemberRepository repository = routedRepository(new ReadYourWritesWindow(60_000));
+
+        // replica1 의 커넥션을 하나 잡고 있으면 replica2 로 보낸다.
+        Route previous = ReadWriteRoutingDataSource.bindRoute(Route.REPLICA);
+        Connection held;
+        try {
+            held = routing.getConnection();
+        } finally {
+            ReadWriteRoutingDataSource.bindRoute(previous);
+        }
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+
+        held.close();
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+    }
+
+    @Test
+    void unhealthyReplicaFallsBackToPrimary() {
+        // 열려 있지 않은 포트
+        DriverManagerDataSource down = new DriverManagerDataSource("jdbc:h2:tcp://localhost:1/~/down", USERNAME, PASSWORD);
+        routing = new ReadWriteRoutingDataSource(primary, List.of(down, replica1), ReplicaSelection.ROUND_ROBIN, 0);
+        MemberRepository repository = routedRepository(new ReadYourWritesWindow(60_000));
+
+        routing.checkReplicas();
+        assertThat(routing.getHealthyReplicaCount()).isEqualTo(1);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+
+        routing = new ReadWriteRoutingDataSource(primary, List.of(down), ReplicaSelection.ROUND_ROBIN, 0);
+        repository = routedRepository(new ReadYourWritesWindow(60_000));
+        routing.checkReplicas();
+        assertThat(routing.getHealthyReplicaCount()).isZero();
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+    }
+
+    private MemberRepository routedRepository(ReadYourWritesWindow window) {
+        return ReplicaRoutingInterceptor.instrument(new MemberRepositoryV4_1(routing.lazyConnectionProxy()), window);
+    }
+
+    /**
+     * 복제본 테이블은 primary 와 같은 컬럼으로 만든다. (version 컬럼은 선택 사항)
+     */
+    private void createReplicaTable(DataSource replica) throws SQLException {
+        boolean versioned = false;
+        try (Connection con = primary.getConnection(); Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("select * from member where 1=0")) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                versioned |= "version".equalsIgnoreCase(metaData.getColumnName(i));
+            }
+        }
+        try (Connection con = replica.getConnection(); Statement stmt = con.createStatement()) {
+            stmt.execute("drop table if exists member");
+            stmt.execute("create table member (" +
+                    "member_id varchar(10), " +
+                    "money integer not null default 0, " +
+                    (versioned ? "version bigint not null default 0, " : "") +
+                    "primary key (member_id))");
+        }
+    }
+}
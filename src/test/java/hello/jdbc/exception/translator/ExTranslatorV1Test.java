@@ -1,6 +1,8 @@
 package hello.jdbc.exception.translator;
 import hello.jdbc.domain.Member;
+import hello.jdbc.repository.HiLoIdGenerator;
 import hello.jdbc.repository.ex.MyDbException;
+import hello.jdbc.repository.ex.MyDbExceptionTranslator;
 
 import hello.jdbc.repository.ex.MyDuplicateKeyException;
 import lombok.RequiredArgsConstructor;
@@ -13,7 +15,6 @@ import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.Random;
 
 import static hello.jdbc.connection.ConnectionConst.*;
 import static org.springframework.jdbc.support.JdbcUtils.closeConnection;
@@ -29,7 +30,7 @@ public class ExTranslatorV1Test {
     void init() {
         DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
         repository = new Repository(dataSource);
-        service = new Service(repository);
+        service = new Service(repository, new HiLoIdGenerator(dataSource));
     }
 
     @Test
@@ -42,6 +43,7 @@ public class ExTranslatorV1Test {
     @RequiredArgsConstructor
     static class Service {
         private final Repository repository;
+        private final HiLoIdGenerator idGenerator;
         public void create(String memberId) {
             try {
                 repository.save(new Member(memberId, 0));
@@ -57,7 +59,8 @@ public class ExTranslatorV1Test {
             }
         }
         private String generateNewId(String memberId) {
-            return memberId + new Random().nextInt(10000);
+            // 랜덤 접미사는 다시 충돌할 수 있다. 시퀀스 블록에서 받은 id 는 겹치지 않는다.
+            return idGenerator.nextMemberId();
         }
     }
 
@@ -76,11 +79,8 @@ public class ExTranslatorV1Test {
                 pstmt.executeUpdate();
                 return member;
             } catch (SQLException e) {
-                //h2 db
-                if (e.getErrorCode() == 23505) {
-                    throw new MyDuplicateKeyException(e);
-                }
-                throw new MyDbException(e);
+                // 에러 코드 표로 변환한다. h2 db 23505 -> MyDuplicateKeyException
+                throw MyDbExceptionTranslator.H2.translate(e);
             } finally {
                 closeStatement(pstmt);
                 closeConnection(con);
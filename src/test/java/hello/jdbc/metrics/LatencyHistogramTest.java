@@ -0,0 +1,32 @@
+package hello.jdbc.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LatencyHistogramTest {
+
+    @Test
+    void percentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(100_000);
+        assertThat(snapshot.getMax()).isEqualTo(100_000);
+        // 버킷 상한을 반환하므로 약 6% 이내의 오차를 허용한다.
+        assertThat((double) snapshot.getValueAtPercentile(50)).isCloseTo(50_000, within(50_000 * 0.07));
+        assertThat((double) snapshot.getValueAtPercentile(99)).isCloseTo(99_000, within(99_000 * 0.07));
+    }
+
+    @Test
+    void reset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+        histogram.reset();
+        assertThat(histogram.snapshot().getCount()).isZero();
+    }
+}
@@ -0,0 +1,89 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.service.MemberServiceV4;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 캐시 무효화가 트랜잭션 커밋에 맞춰 동작하는지 확인한다.
+ */
+@Slf4j
+@SpringBootTest
+class CachingMemberRepositoryTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    @Autowired
+    CachingMemberRepository memberRepository;
+    @Autowired
+    MemberServiceV4 memberService;
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+
+        public TestConfig(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Bean
+        CachingMemberRepository memberRepository() {
+            return new CachingMemberRepository(new MemberRepositoryV4_1(dataSource));
+        }
+
+        @Bean
+        MemberServiceV4 memberServiceV4() {
+            return new MemberServiceV4(memberRepository());
+        }
+    }
+
+    @Test
+    void commitInvalidates() {
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        // 캐시에 적재
+        memberRepository.findById(MEMBER_A);
+        memberRepository.findById(MEMBER_B);
+
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    void rollbackKeepsCommittedValue() {
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+        memberRepository.findById(MEMBER_A);
+
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+        log.info("hitRatio={}, loadPenalty={}", memberRepository.getHitRatio(), memberRepository.getAverageLoadPenalty());
+        assertThat(memberRepository.stats().hitCount()).isPositive();
+    }
+}
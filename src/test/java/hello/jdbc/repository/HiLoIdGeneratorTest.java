@@ -0,0 +1,70 @@
+package hello.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class HiLoIdGeneratorTest {
+
+    static final String SEQUENCE = "test_id_seq";
+
+    DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+
+    @AfterEach
+    void after() throws SQLException {
+        try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement()) {
+            stmt.execute("drop sequence if exists " + SEQUENCE);
+        }
+    }
+
+    @Test
+    void uniqueAcrossNodes() throws InterruptedException {
+        // 같은 데이터베이스를 쓰는 두 노드
+        HiLoIdGenerator node1 = new HiLoIdGenerator(dataSource, SEQUENCE, 100, "t");
+        HiLoIdGenerator node2 = new HiLoIdGenerator(dataSource, SEQUENCE, 100, "t");
+        Set<String> memberIds = ConcurrentHashMap.newKeySet();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            HiLoIdGenerator generator = t % 2 == 0 ? node1 : node2;
+            executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    memberIds.add(generator.nextMemberId());
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        assertThat(memberIds).hasSize(8000);
+        // 블록 하나에 100 개씩이므로 노드별로 40 블록이면 충분하다.
+        long blocks = node1.getFetchedBlockCount() + node2.getFetchedBlockCount();
+        log.info("blocks={}", blocks);
+        assertThat(blocks).isBetween(80L, 82L);
+    }
+
+    @Test
+    void rejectBlockSizeMismatch() {
+        HiLoIdGenerator node1 = new HiLoIdGenerator(dataSource, SEQUENCE, 100, "t");
+        HiLoIdGenerator node2 = new HiLoIdGenerator(dataSource, SEQUENCE, 1000, "t");
+        node1.nextId();
+
+        // 블록 크기가 다르면 구간이 겹치므로 id 를 나눠주기 전에 실패한다.
+        assertThatThrownBy(node2::nextId).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,57 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.metrics.LatencyInterceptor;
+import hello.jdbc.metrics.OperationMetrics;
+import hello.jdbc.metrics.OperationSnapshot;
+import hello.jdbc.repository.ex.MyDuplicateKeyException;
+import hello.jdbc.service.MemberServiceV4;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class InstrumentedMemberRepositoryTest {
+
+    OperationMetrics metrics = new OperationMetrics();
+    MemberRepository repository = new InstrumentedMemberRepository(new MemoryMemberRepository(), metrics);
+
+    @Test
+    void repositoryMetrics() {
+        repository.save(new Member("memberA", 10000));
+        assertThatThrownBy(() -> repository.save(new Member("memberA", 10000)))
+                .isInstanceOf(MyDuplicateKeyException.class);
+        repository.findById("memberA");
+        repository.findById("memberA");
+
+        OperationSnapshot save = metrics.stats("MemberRepository.save").snapshot();
+        assertThat(save.getLatency().getCount()).isEqualTo(2);
+        assertThat(save.getRows()).isEqualTo(1);
+        assertThat(save.getErrors()).containsEntry("MyDuplicateKeyException", 1L);
+
+        OperationSnapshot findById = metrics.stats("MemberRepository.findById").snapshot();
+        assertThat(findById.getLatency().getCount()).isEqualTo(2);
+        assertThat(findById.getErrors()).isEmpty();
+    }
+
+    @Test
+    void serviceMetrics() {
+        repository.save(new Member("memberA", 10000));
+        repository.save(new Member("memberB", 10000));
+        MemberServiceV4 memberService = LatencyInterceptor.instrument(new MemberServiceV4(repository), metrics);
+
+        memberService.accountTransfer("memberA", "memberB", 1000);
+
+        List<OperationSnapshot> exported = new ArrayList<>();
+        metrics.exportTo(exported::add);
+        exported.forEach(snapshot -> log.info("{}", snapshot));
+        assertThat(exported).extracting(OperationSnapshot::getName)
+                .contains("MemberServiceV4.accountTransfer", "MemberRepository.update");
+        assertThat(metrics.stats("MemberServiceV4.accountTransfer").snapshot().getLatency().getCount()).isEqualTo(1);
+    }
+}
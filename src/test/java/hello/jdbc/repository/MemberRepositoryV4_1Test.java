@@ -0,0 +1,406 @@
+package hello.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.metrics.OperationMetrics;
+import hello.jdbc.repository.ex.MyDbException;
+import hello.jdbc.repository.ex.MyDbExceptionTranslator;
+import hello.jdbc.repository.ex.MyDuplicateKeyException;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class MemberRepositoryV4_1Test {
+
+    HikariDataSource dataSource;
+    MemberRepositoryV4_1 repository;
+    List<String> memberIds = new ArrayList<>();
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        // 배치 경계를 확인하기 위해 작은 배치 크기를 사용한다.
+        repository = new MemberRepositoryV4_1(dataSource, 3);
+    }
+
+    @AfterEach
+    void afterEach() {
+        for (String memberId : memberIds) {
+            repository.delete(memberId);
+        }
+        dataSource.close();
+    }
+
+    @Test
+    void saveAll() {
+        List<Member> members = members("batch", 7);
+
+        int[] results = repository.saveAll(members);
+
+        assertThat(results).hasSize(7).containsOnly(1);
+        for (Member member : members) {
+            assertThat(repository.findById(member.getMemberId())).isEqualTo(member);
+        }
+    }
+
+    @Test
+    void saveAllDuplicateKey() {
+        List<Member> members = members("batchDup", 4);
+        repository.save(members.get(2));
+
+        assertThatThrownBy(() -> repository.saveAll(members))
+                .isInstanceOf(MyDuplicateKeyException.class)
+                .hasMessageContaining("batch insert failed memberId=batchDup2");
+    }
+
+    @Test
+    void saveAllIterator() {
+        List<Member> members = members("batchIt", 10);
+
+        // 크기를 모르는 입력은 결과 배열을 늘려가며 모은다.
+        int[] results = repository.saveAll(members.iterator());
+
+        assertThat(results).hasSize(10).containsOnly(1);
+    }
+
+    @Test
+    void upsert() {
+        Member member = members("upsert", 1).get(0);
+
+        assertThat(repository.upsert(member)).isTrue();
+        assertThat(repository.upsert(new Member(member.getMemberId(), 20000))).isFalse();
+        assertThat(repository.findById(member.getMemberId()).getMoney()).isEqualTo(20000);
+    }
+
+    @Test
+    void updateAll() {
+        List<Member> members = members("updAll", 2);
+        repository.saveAll(members);
+
+        Map<String, Integer> moneys = new LinkedHashMap<>();
+        moneys.put(members.get(1).getMemberId(), 2000);
+        moneys.put("none", 1000);
+        moneys.put(members.get(0).getMemberId(), 1000);
+
+        assertThat(repository.updateAll(moneys)).containsExactly(1, 0, 1);
+        assertThat(repository.findById(members.get(0).getMemberId()).getMoney()).isEqualTo(1000);
+        assertThat(repository.findById(members.get(1).getMemberId()).getMoney()).isEqualTo(2000);
+    }
+
+    @Test
+    void insertAllIfAbsent() {
+        List<Member> members = members("absent", 5);
+        repository.save(members.get(1));
+        repository.update(members.get(1).getMemberId(), 500);
+
+        assertThat(repository.insertIfAbsent(members.get(1))).isFalse();
+        int[] results = repository.insertAllIfAbsent(members);
+
+        // 이미 있던 회원은 건너뛰고 값도 바꾸지 않는다.
+        assertThat(results).containsExactly(1, 0, 1, 1, 1);
+        assertThat(repository.findById(members.get(1).getMemberId()).getMoney()).isEqualTo(500);
+    }
+
+    @Test
+    void insertAllIfAbsentFailure() {
+        List<Member> members = members("absFail", 2);
+        // member_id 는 기본 키이므로 null 은 실패한다.
+        members.add(new Member(null, 10000));
+
+        assertThatThrownBy(() -> repository.insertAllIfAbsent(members))
+                .isInstanceOf(MyDbException.class)
+                .hasMessageContaining("batch insert if absent failed memberId=null");
+    }
+
+    @Test
+    void phaseMetrics() {
+        OperationMetrics metrics = new OperationMetrics();
+        MemberRepositoryV4_1 measured = new MemberRepositoryV4_1(dataSource, 3, null, MyDbExceptionTranslator.H2, new H2UpsertDialect(), metrics);
+        Member member = members("phase", 1).get(0);
+
+        measured.save(member);
+        measured.findById(member.getMemberId());
+
+        // 커넥션 획득, SQL 실행, 결과 매핑을 따로 기록한다.
+        assertThat(metrics.stats("jdbc.acquire").snapshot().getLatency().getCount()).isEqualTo(2);
+        assertThat(metrics.stats("jdbc.execute").snapshot().getLatency().getCount()).isEqualTo(2);
+        assertThat(metrics.stats("jdbc.mapping").snapshot().getRows()).isEqualTo(1);
+    }
+
+    @Test
+    void findAllById() {
+        OperationMetrics metrics = new OperationMetrics();
+        MemberRepositoryV4_1 measured = new MemberRepositoryV4_1(dataSource, 1000, null, MyDbExceptionTranslator.H2, new H2UpsertDialect(), metrics);
+        List<Member> members = members("find", 300);
+        measured.saveAll(members);
+
+        List<String> ids = new ArrayList<>();
+        members.forEach(member -> ids.add(member.getMemberId()));
+        ids.add(1, "none1");
+        ids.add("find0");
+        ids.add("none2");
+        MemberLookup lookup = measured.findAllById(ids);
+
+        // 302개(중복 제외)는 256개 묶음과 64개로 채운 묶음, 두 번의 조회를 커넥션 하나로 보낸다.
+        assertThat(lookup.getMembers()).hasSize(300);
+        assertThat(lookup.getMembers().keySet()).first().isEqualTo("find0");
+        assertThat(lookup.getMembers().get("find299")).isEqualTo(members.get(299));
+        assertThat(lookup.getMissingIds()).containsExactly("none1", "none2");
+        assertThat(metrics.stats("jdbc.acquire").snapshot().getLatency().getCount()).isEqualTo(2);
+        assertThat(metrics.stats("jdbc.execute").snapshot().getLatency().getCount()).isEqualTo(3);
+    }
+
+    @Test
+    void findAllByIdParallel() throws SQLException {
+        int parallelism = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        OperationMetrics metrics = new OperationMetrics();
+        MemberRepositoryV4_1 measured = new MemberRepositoryV4_1(dataSource, 1000, null, MyDbExceptionTranslator.H2,
+                new H2UpsertDialect(), metrics, executor, parallelism);
+        OperationMetrics sequentialMetrics = new OperationMetrics();
+        MemberRepositoryV4_1 sequential = new MemberRepositoryV4_1(dataSource, 1000, null, MyDbExceptionTranslator.H2,
+                new H2UpsertDialect(), sequentialMetrics);
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < MemberRepositoryV4_1.FIND_ALL_PARALLEL_THRESHOLD; i++) {
+            members.add(new Member("par" + i, i));
+        }
+        try {
+            measured.saveAll(members);
+            List<String> ids = new ArrayList<>();
+            members.forEach(member -> ids.add(member.getMemberId()));
+
+            MemberLookup lookup = measured.findAllById(ids);
+
+            assertThat(lookup.getMembers()).hasSize(members.size());
+            assertThat(lookup.hasMissing()).isFalse();
+            assertThat(lookup.getMembers().get("par4095").getMoney()).isEqualTo(4095);
+            // saveAll 1번 + 조회 작업마다 커넥션 1개
+            assertThat(metrics.stats("jdbc.acquire").snapshot().getLatency().getCount())
+                    .isEqualTo(1 + parallelism);
+
+            // Executor 를 주지 않으면 커넥션 하나로 차례로 조회한다.
+            assertThat(sequential.findAllById(ids).getMembers()).hasSize(members.size());
+            assertThat(sequentialMetrics.stats("jdbc.acquire").snapshot().getLatency().getCount()).isEqualTo(1);
+        } finally {
+            executor.shutdown();
+            try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement()) {
+                stmt.execute("delete from member where member_id like 'par%'");
+            }
+        }
+    }
+
+    @Test
+    void inListShape() {
+        assertThat(MemberRepositoryV4_1.IN_LIST_SIZES[MemberRepositoryV4_1.inListShape(1)]).isEqualTo(1);
+        assertThat(MemberRepositoryV4_1.IN_LIST_SIZES[MemberRepositoryV4_1.inListShape(5)]).isEqualTo(16);
+        assertThat(MemberRepositoryV4_1.IN_LIST_SIZES[MemberRepositoryV4_1.inListShape(256)]).isEqualTo(256);
+        assertThat(MemberRepositoryV4_1.IN_LIST_SIZES[MemberRepositoryV4_1.inListShape(1000)]).isEqualTo(256);
+    }
+
+    @Test
+    void affectedRows() {
+        // 영향받은 행 수를 더하고, 건수를 모르는 항목은 1건, 실패와 0건은 세지 않는다.
+        int[] counts = {1, 0, 3, Statement.SUCCESS_NO_INFO, Statement.EXECUTE_FAILED};
+        assertThat(MemberRepositoryV4_1.affectedRows(counts)).isEqualTo(5);
+    }
+
+    @Test
+    void transferInsufficientFundsWithSingleConnection() {
+        // 커넥션이 하나뿐인 풀에서도 실패 원인을 확인하다가 멈추지 않는다.
+        HikariDataSource single = new HikariDataSource();
+        single.setJdbcUrl(URL);
+        single.setUsername(USERNAME);
+        single.setPassword(PASSWORD);
+        single.setMaximumPoolSize(1);
+        single.setConnectionTimeout(1000);
+        try {
+            MemberRepositoryV4_1 singleRepository = new MemberRepositoryV4_1(single);
+            singleRepository.saveAll(members("single", 2));
+
+            assertThatThrownBy(() -> singleRepository.transfer("single0", "single1", 20000))
+                    .isInstanceOf(IllegalStateException.class);
+        } finally {
+            single.close();
+        }
+    }
+
+    @Test
+    void transfer() {
+        List<Member> members = members("transfer", 2);
+        repository.saveAll(members);
+
+        repository.transfer("transfer0", "transfer1", 2000);
+
+        assertThat(repository.findById("transfer0").getMoney()).isEqualTo(8000);
+        assertThat(repository.findById("transfer1").getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    void transferInsufficientFunds() {
+        List<Member> members = members("transferEx", 2);
+        repository.saveAll(members);
+
+        assertThatThrownBy(() -> repository.transfer("transferEx0", "transferEx1", 20000))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> repository.transfer("transferEx0", "noMember", 2000))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(() -> repository.transfer("noMember", "transferEx1", 2000))
+                .isInstanceOf(NoSuchElementException.class);
+        // 음수 금액으로 반대 방향 이체가 되지 않는다.
+        assertThatThrownBy(() -> repository.transfer("transferEx0", "transferEx1", -2000))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        // 실패한 이체는 양쪽 모두 변경되지 않아야 한다.
+        assertThat(repository.findById("transferEx0").getMoney()).isEqualTo(10000);
+        assertThat(repository.findById("transferEx1").getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void streamAll() {
+        List<Member> members = members("stream", 5);
+        repository.saveAll(members);
+
+        // fetchSize 보다 많은 행도 끝까지 읽고, 스트림을 닫으면 커넥션이 반납된다.
+        try (Stream<Member> stream = repository.streamAll(2)) {
+            assertThat(stream.filter(member -> member.getMemberId().startsWith("stream")))
+                    .containsExactlyInAnyOrderElementsOf(members);
+        }
+        try (Stream<Member> stream = repository.streamByMinMoney(10000, 2)) {
+            assertThat(stream.filter(member -> member.getMemberId().startsWith("stream")).count()).isEqualTo(5);
+        }
+        assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isZero();
+    }
+
+    @Test
+    void findPageAfter() {
+        List<Member> members = members("page", 5);
+        repository.saveAll(members);
+
+        // page 로 시작하는 회원만 보기 위해 "page" 바로 앞의 키에서 시작한다.
+        MemberPage first = repository.findPageAfter("pagd", 2);
+        assertThat(first.getMembers()).extracting(Member::getMemberId).containsExactly("page0", "page1");
+        assertThat(first.getNextMemberId()).isEqualTo("page1");
+
+        MemberPage second = repository.findPageAfter(first.getNextMemberId(), 2);
+        assertThat(second.getMembers()).extracting(Member::getMemberId).containsExactly("page2", "page3");
+
+        MemberPage third = repository.findPageAfter(second.getNextMemberId(), 2);
+        assertThat(third.getMembers().get(0).getMemberId()).isEqualTo("page4");
+    }
+
+    @Test
+    void compareAndUpdate() throws SQLException {
+        MemberRepositoryV4_1 versioned = versionedRepository();
+        versioned.save(new Member("cas", 10000));
+        Member member = versioned.findById("cas");
+
+        assertThat(versioned.compareAndUpdate("cas", member.getVersion(), 9000)).isTrue();
+        // 이미 version 이 올라갔으므로 같은 version 으로는 실패하고 값도 바뀌지 않는다.
+        assertThat(versioned.compareAndUpdate("cas", member.getVersion(), 8000)).isFalse();
+        Member updated = versioned.findById("cas");
+        assertThat(updated.getMoney()).isEqualTo(9000);
+        assertThat(updated.getVersion()).isEqualTo(member.getVersion() + 1);
+        assertThat(versioned.compareAndUpdate("none", 0, 8000)).isFalse();
+    }
+
+    @Test
+    void versionColumnDetection() throws SQLException {
+        MemberRepositoryV4_1 versioned = versionedRepository();
+        versioned.save(new Member("ver", 10000));
+
+        // version 컬럼이 있으면 다른 변경도 version 을 올려서 낙관적 갱신이 변경을 알 수 있다.
+        versioned.update("ver", 9000);
+        versioned.addMoneyAll(Map.of("ver", 100));
+        versioned.updateAll(Map.of("ver", 5000));
+        assertThat(versioned.findById("ver").getVersion()).isEqualTo(3);
+
+        // version 컬럼이 없으면 version 없이 동작하고, compareAndUpdate 만 실패한다.
+        DriverManagerDataSource plainDataSource = new DriverManagerDataSource("jdbc:h2:mem:unversioned;DB_CLOSE_DELAY=-1", "sa", "");
+        try (Connection con = plainDataSource.getConnection(); Statement stmt = con.createStatement()) {
+            stmt.execute("drop table if exists member");
+            stmt.execute("create table member (" +
+                    "member_id varchar(10), " +
+                    "money integer not null default 0, " +
+                    "primary key (member_id))");
+        }
+        MemberRepositoryV4_1 plain = new MemberRepositoryV4_1(plainDataSource);
+        plain.save(new Member("ver", 10000));
+        plain.update("ver", 9000);
+        assertThat(plain.findById("ver")).isEqualTo(new Member("ver", 9000));
+        assertThatThrownBy(() -> plain.compareAndUpdate("ver", 0, 8000))
+                .isInstanceOf(MyDbException.class);
+    }
+
+    @Test
+    void pageAndStreamReadVersion() throws SQLException {
+        MemberRepositoryV4_1 versioned = versionedRepository();
+        versioned.save(new Member("v1", 10000));
+        versioned.update("v1", 9000);
+        Member found = versioned.findById("v1");
+
+        // 페이지와 스트림도 findById 와 같은 version 을 읽어서 서로 같은 회원으로 비교된다.
+        assertThat(found.getVersion()).isEqualTo(1);
+        assertThat(versioned.findPageAfter(null, 10).getMembers()).containsExactly(found);
+        try (Stream<Member> stream = versioned.streamAll(10)) {
+            assertThat(stream).containsExactly(found);
+        }
+    }
+
+    @Test
+    void findForUpdate() {
+        List<Member> members = members("lock", 2);
+        repository.saveAll(members);
+
+        // 넘긴 순서와 관계없이 member_id 순서로 반환한다.
+        assertThat(repository.findForUpdate("lock1", "lock0"))
+                .extracting(Member::getMemberId).containsExactly("lock0", "lock1");
+    }
+
+    /**
+     * version 컬럼이 있는 member 테이블을 메모리 H2 에 새로 만든다.
+     */
+    private static MemberRepositoryV4_1 versionedRepository() throws SQLException {
+        DriverManagerDataSource versionedDataSource = new DriverManagerDataSource("jdbc:h2:mem:versioned;DB_CLOSE_DELAY=-1", "sa", "");
+        try (Connection con = versionedDataSource.getConnection(); Statement stmt = con.createStatement()) {
+            stmt.execute("drop table if exists member");
+            stmt.execute("create table member (" +
+                    "member_id varchar(10), " +
+                    "money integer not null default 0, " +
+                    "version bigint not null default 0, " +
+                    "primary key (member_id))");
+        }
+        return new MemberRepositoryV4_1(versionedDataSource);
+    }
+
+    private List<Member> members(String prefix, int count) {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Member member = new Member(prefix + i, 10000);
+            members.add(member);
+            memberIds.add(member.getMemberId());
+        }
+        return members;
+    }
+}
@@ -0,0 +1,160 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.ex.MyDuplicateKeyException;
+import hello.jdbc.service.MemberServiceV4;
+import hello.jdbc.service.TransferMode;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class MemoryMemberRepositoryTest {
+
+    MemoryMemberRepository repository = new MemoryMemberRepository();
+
+    @Test
+    void crud() {
+        // save
+        Member member = new Member("memberV100", 10000);
+        repository.save(member);
+        assertThatThrownBy(() -> repository.save(member))
+                .isInstanceOf(MyDuplicateKeyException.class);
+
+        // findById
+        assertThat(repository.findById(member.getMemberId())).isEqualTo(member);
+
+        // update: money: 10000 -> 20000
+        repository.update(member.getMemberId(), 20000);
+        assertThat(repository.getMoney(member.getMemberId())).isEqualTo(20000);
+
+        // delete
+        repository.delete(member.getMemberId());
+        assertThatThrownBy(() -> repository.findById(member.getMemberId()))
+                .isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    void upsert() {
+        assertThat(repository.upsert(new Member("memberUp", 10000))).isTrue();
+        Member inserted = repository.findById("memberUp");
+
+        assertThat(repository.upsert(new Member("memberUp", 20000))).isFalse();
+        assertThat(repository.insertIfAbsent(new Member("memberUp", 30000))).isFalse();
+
+        Member updated = repository.findById("memberUp");
+        assertThat(updated.getMoney()).isEqualTo(20000);
+        assertThat(updated.getVersion()).isGreaterThan(inserted.getVersion());
+    }
+
+    @Test
+    void updateAll() {
+        repository.save(new Member("memberU1", 10000));
+        repository.save(new Member("memberU2", 10000));
+
+        Map<String, Integer> moneys = new LinkedHashMap<>();
+        moneys.put("memberU1", 1000);
+        moneys.put("none", 1000);
+        moneys.put("memberU2", 2000);
+        assertThat(repository.updateAll(moneys)).containsExactly(1, 0, 1);
+
+        assertThat(repository.findById("memberU1").getMoney()).isEqualTo(1000);
+        assertThat(repository.findById("memberU2").getMoney()).isEqualTo(2000);
+    }
+
+    @Test
+    void findAllById() {
+        repository.save(new Member("memberF1", 1000));
+        repository.save(new Member("memberF2", 2000));
+
+        MemberLookup lookup = repository.findAllById(List.of("memberF2", "none", "memberF1", "memberF2"));
+
+        assertThat(lookup.getMembers().keySet()).containsExactly("memberF2", "memberF1");
+        assertThat(lookup.getMembers().get("memberF1").getMoney()).isEqualTo(1000);
+        assertThat(lookup.getMissingIds()).containsExactly("none");
+    }
+
+    @Test
+    void compareAndUpdate() {
+        repository.save(new Member("memberCas", 10000));
+        Member member = repository.findById("memberCas");
+
+        assertThat(repository.compareAndUpdate("memberCas", member.getVersion(), 9000)).isTrue();
+        // 이미 version 이 올라갔으므로 같은 version 으로는 실패한다.
+        assertThat(repository.compareAndUpdate("memberCas", member.getVersion(), 8000)).isFalse();
+        assertThat(repository.findById("memberCas").getMoney()).isEqualTo(9000);
+    }
+
+    @Test
+    void optimisticAccountTransfer() throws InterruptedException {
+        repository.save(new Member("memberA", 100000));
+        repository.save(new Member("memberB", 100000));
+        MemberServiceV4 memberService = new MemberServiceV4(repository, TransferMode.OPTIMISTIC);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            boolean forward = t % 2 == 0;
+            executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (forward) {
+                        memberService.accountTransfer("memberA", "memberB", 10);
+                    } else {
+                        memberService.accountTransfer("memberB", "memberA", 10);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        log.info("conflictRate={}, retriesPerTransfer={}", memberService.getConflictRate(), memberService.getRetriesPerTransfer());
+        assertThat(memberService.getOptimisticTransferCount()).isEqualTo(4000);
+        assertThat(memberService.getConflictedTransferCount()).isLessThanOrEqualTo(memberService.getOptimisticConflictCount());
+        assertThat(memberService.getConflictRate()).isBetween(0.0, 1.0).isLessThanOrEqualTo(memberService.getRetriesPerTransfer());
+        assertThat(repository.getMoney("memberA") + repository.getMoney("memberB")).isEqualTo(200000);
+    }
+
+    @Test
+    void concurrentTransfer() throws InterruptedException {
+        int members = 100;
+        for (int i = 0; i < members; i++) {
+            repository.save(new Member("member" + i, 10000));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 10000; i++) {
+                    try {
+                        repository.transfer("member" + random.nextInt(members), "member" + random.nextInt(members), 1 + random.nextInt(500));
+                    } catch (IllegalStateException e) {
+                        // 잔액 부족은 무시한다.
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+
+        // 이체 중 돈이 사라지거나 생기지 않아야 한다.
+        long total = 0;
+        for (int i = 0; i < members; i++) {
+            int money = repository.getMoney("member" + i);
+            assertThat(money).isNotNegative();
+            total += money;
+        }
+        assertThat(total).isEqualTo(members * 10000L);
+    }
+}
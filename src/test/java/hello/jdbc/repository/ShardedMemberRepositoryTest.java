@@ -0,0 +1,265 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 샤드마다 메모리 H2 데이터베이스를 하나씩 사용한다.
+ */
+class ShardedMemberRepositoryTest {
+
+    static final int SHARD_COUNT = 3;
+
+    List<DataSource> shards = new ArrayList<>();
+    ShardedMemberRepository repository;
+
+    @BeforeEach
+    void before() throws SQLException {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            DataSource shard = new DriverManagerDataSource("jdbc:h2:mem:shard" + i + ";DB_CLOSE_DELAY=-1", "sa", "");
+            execute(shard, "drop table if exists member");
+            execute(shard, "drop table if exists member_transfer_log");
+            execute(shard, "drop table if exists member_transfer_applied");
+            execute(shard, "create table member (" +
+                    "member_id varchar(10), " +
+                    "money integer not null default 0, " +
+                    "primary key (member_id))");
+            shards.add(shard);
+        }
+        repository = new ShardedMemberRepository(shards);
+    }
+
+    @Test
+    void routeByHash() throws SQLException {
+        for (int i = 0; i < 100; i++) {
+            repository.save(new Member("m" + i, i));
+        }
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            int shard = i;
+            long expected = Stream.iterate(0, n -> n + 1).limit(100)
+                    .filter(n -> repository.shardOf("m" + n) == shard)
+                    .count();
+            assertThat(count(shards.get(i), "select count(*) from member")).isEqualTo(expected).isPositive();
+        }
+        assertThat(repository.findById("m42").getMoney()).isEqualTo(42);
+    }
+
+    @Test
+    void crossShardTransfer() throws SQLException {
+        String[] ids = crossShardIds();
+        repository.save(new Member(ids[0], 10000));
+        repository.save(new Member(ids[1], 10000));
+
+        repository.transfer(ids[0], ids[1], 2000);
+        repository.transfer(ids[1], ids[0], 500);
+
+        assertThat(repository.findById(ids[0]).getMoney()).isEqualTo(8500);
+        assertThat(repository.findById(ids[1]).getMoney()).isEqualTo(11500);
+        assertThat(repository.getCrossShardTransferCount()).isEqualTo(2);
+        // 커밋 후 복구 로그와 적용 표시를 지운다.
+        for (DataSource shard : shards) {
+            assertThat(count(shard, "select count(*) from member_transfer_log")).isZero();
+            assertThat(count(shard, "select count(*) from member_transfer_applied")).isZero();
+        }
+    }
+
+    @Test
+    void crossShardTransferFail() {
+        String[] ids = crossShardIds();
+        repository.save(new Member(ids[0], 1000));
+        repository.save(new Member(ids[1], 10000));
+
+        assertThatThrownBy(() -> repository.transfer(ids[0], ids[1], 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        // 두 샤드 모두 롤백된다.
+        assertThat(repository.findById(ids[0]).getMoney()).isEqualTo(1000);
+        assertThat(repository.findById(ids[1]).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void sameShardTransfer() {
+        String from = "m0";
+        String to = "m1";
+        for (int i = 1; repository.shardOf(to) != repository.shardOf(from); i++) {
+            to = "m" + i;
+        }
+        repository.save(new Member(from, 10000));
+        repository.save(new Member(to, 10000));
+
+        repository.transfer(from, to, 2000);
+
+        assertThat(repository.findById(from).getMoney()).isEqualTo(8000);
+        assertThat(repository.findById(to).getMoney()).isEqualTo(12000);
+        assertThat(repository.getCrossShardTransferCount()).isZero();
+    }
+
+    @Test
+    void sameShardOppositeTransfers() throws Exception {
+        String a = "m0";
+        String b = "m1";
+        for (int i = 1; repository.shardOf(b) != repository.shardOf(a); i++) {
+            b = "m" + i;
+        }
+        repository.save(new Member(a, 10000));
+        repository.save(new Member(b, 10000));
+
+        int threads = 4;
+        int transfers = 25;
+        String first = a;
+        String second = b;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            boolean forward = t % 2 == 0;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < transfers; i++) {
+                    if (forward) {
+                        repository.transfer(first, second, 1);
+                    } else {
+                        repository.transfer(second, first, 1);
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+
+        // 같은 샤드 안의 반대 방향 이체도 member_id 순서로 잠그므로 데드락 없이 모두 성공한다.
+        for (Future<?> result : results) {
+            result.get();
+        }
+        assertThat(repository.findById(a).getMoney()).isEqualTo(10000);
+        assertThat(repository.findById(b).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void recoverInDoubtTransfer() throws SQLException {
+        String[] ids = crossShardIds();
+        repository.save(new Member(ids[0], 10000));
+        repository.save(new Member(ids[1], 10000));
+        repository.recover();
+
+        // from 샤드만 커밋되고 to 샤드 커밋 전에 중단된 상태를 만든다.
+        DataSource from = shards.get(repository.shardOf(ids[0]));
+        execute(from, "update member set money=money-2000 where member_id='" + ids[0] + "'");
+        execute(from, "insert into member_transfer_log(tx_id, from_id, to_id, amount) " +
+                "values('tx-1', '" + ids[0] + "', '" + ids[1] + "', 2000)");
+
+        assertThat(repository.recover()).isEqualTo(1);
+        assertThat(repository.findById(ids[0]).getMoney()).isEqualTo(8000);
+        assertThat(repository.findById(ids[1]).getMoney()).isEqualTo(12000);
+
+        // 다시 호출해도 두 번 입금하지 않는다.
+        assertThat(repository.recover()).isZero();
+        assertThat(repository.findById(ids[1]).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    void recoverAlreadyApplied() throws SQLException {
+        String[] ids = crossShardIds();
+        repository.save(new Member(ids[0], 8000));
+        repository.save(new Member(ids[1], 12000));
+        repository.recover();
+
+        // 두 샤드 모두 커밋되고 로그를 지우기 전에 중단된 상태
+        execute(shards.get(repository.shardOf(ids[0])), "insert into member_transfer_log(tx_id, from_id, to_id, amount) " +
+                "values('tx-1', '" + ids[0] + "', '" + ids[1] + "', 2000)");
+        execute(shards.get(repository.shardOf(ids[1])), "insert into member_transfer_applied(tx_id) values('tx-1')");
+
+        assertThat(repository.recover()).isZero();
+        assertThat(repository.findById(ids[1]).getMoney()).isEqualTo(12000);
+        assertThat(count(shards.get(repository.shardOf(ids[0])), "select count(*) from member_transfer_log")).isZero();
+        assertThat(count(shards.get(repository.shardOf(ids[1])), "select count(*) from member_transfer_applied")).isZero();
+    }
+
+    @Test
+    void batchResultsKeepOrder() {
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            members.add(new Member("m" + i, 1000));
+        }
+        assertThat(repository.saveAll(members)).containsOnly(1);
+        assertThat(repository.insertAllIfAbsent(List.of(new Member("m3", 0), new Member("new", 0), new Member("m7", 0))))
+                .containsExactly(0, 1, 0);
+
+        Map<String, Integer> deltas = new LinkedHashMap<>();
+        deltas.put("m1", 100);
+        deltas.put("none", 100);
+        deltas.put("m2", -100);
+        assertThat(repository.addMoneyAll(deltas)).containsExactly(1, 0, 1);
+        assertThat(repository.findById("m1").getMoney()).isEqualTo(1100);
+        assertThat(repository.findById("m2").getMoney()).isEqualTo(900);
+    }
+
+    @Test
+    void findAcrossShards() {
+        for (int i = 0; i < 20; i++) {
+            repository.save(new Member(String.format("m%02d", i), i * 100));
+        }
+
+        // 키셋 페이지는 샤드를 합쳐서 member_id 순서를 유지한다.
+        List<String> paged = new ArrayList<>();
+        String last = null;
+        MemberPage page;
+        do {
+            page = repository.findPageAfter(last, 7);
+            page.getMembers().forEach(member -> paged.add(member.getMemberId()));
+            last = page.getNextMemberId();
+        } while (page.hasNext());
+        assertThat(paged).hasSize(20).isSorted();
+
+        try (Stream<Member> members = repository.streamByMinMoney(1000, 10)) {
+            assertThat(members.map(Member::getMemberId).collect(Collectors.toList())).hasSize(10);
+        }
+        assertThat(repository.findAllForUpdate(List.of("m05", "m01", "m13", "none")))
+                .extracting(Member::getMemberId).containsExactly("m01", "m05", "m13");
+
+        MemberLookup lookup = repository.findAllById(List.of("m13", "none", "m01", "m13"));
+        assertThat(lookup.getMembers().keySet()).containsExactly("m13", "m01");
+        assertThat(lookup.getMissingIds()).containsExactly("none");
+    }
+
+    private String[] crossShardIds() {
+        String from = "m0";
+        String to = "m1";
+        for (int i = 1; repository.shardOf(to) == repository.shardOf(from); i++) {
+            to = "m" + i;
+        }
+        return new String[]{from, to};
+    }
+
+    private static void execute(DataSource dataSource, String sql) throws SQLException {
+        try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    private static long count(DataSource dataSource, String sql) throws SQLException {
+        try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.metrics.OperationMetrics;
+import hello.jdbc.metrics.OperationSnapshot;
+import hello.jdbc.service.MemberServiceV4;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class UnitOfWorkMemberRepositoryTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+    DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+    MemberRepositoryV4_1 jdbcRepository = new MemberRepositoryV4_1(dataSource);
+    // 실제로 DB 에 보낸 호출 수를 세기 위해 계측 저장소를 사이에 둔다.
+    OperationMetrics metrics = new OperationMetrics();
+    UnitOfWorkMemberRepository repository = new UnitOfWorkMemberRepository(new InstrumentedMemberRepository(jdbcRepository, metrics));
+
+    @BeforeEach
+    void before() {
+        jdbcRepository.save(new Member(MEMBER_A, 10000));
+        jdbcRepository.save(new Member(MEMBER_B, 10000));
+        jdbcRepository.save(new Member(MEMBER_EX, 10000));
+    }
+
+    @AfterEach
+    void after() {
+        jdbcRepository.delete(MEMBER_A);
+        jdbcRepository.delete(MEMBER_B);
+        jdbcRepository.delete(MEMBER_EX);
+    }
+
+    @Test
+    void accountTransfer() {
+        MemberServiceV4 memberService = transactional(new MemberServiceV4(repository));
+
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+
+        assertThat(jdbcRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(jdbcRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+        // 조회 2번, update 2건은 커밋 직전에 배치 하나로
+        assertThat(calls("findById")).isEqualTo(2);
+        assertThat(calls("update")).isZero();
+        assertThat(calls("updateAll")).isEqualTo(1);
+        assertThat(snapshot("updateAll").getRows()).isEqualTo(2);
+    }
+
+    @Test
+    void rollbackSendsNothing() {
+        MemberServiceV4 memberService = transactional(new MemberServiceV4(repository));
+
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000))
+                .isInstanceOf(IllegalStateException.class);
+
+        assertThat(calls("updateAll")).isZero();
+        assertThat(jdbcRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void multiStepFlow() {
+        TransactionTemplate txTemplate = new TransactionTemplate(transactionManager);
+
+        txTemplate.executeWithoutResult(status -> {
+            for (int i = 0; i < 3; i++) {
+                Member member = repository.findById(MEMBER_A);
+                repository.update(MEMBER_A, member.getMoney() - 1000);
+            }
+            // 아직 보내지 않은 값을 읽는다.
+            assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+        });
+
+        assertThat(jdbcRepository.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+        assertThat(calls("findById")).isEqualTo(1);
+        assertThat(repository.getHitCount()).isEqualTo(3);
+        assertThat(snapshot("updateAll").getRows()).isEqualTo(1);
+    }
+
+    @Test
+    void findAllById() {
+        TransactionTemplate txTemplate = new TransactionTemplate(transactionManager);
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.findById(MEMBER_A);
+            repository.update(MEMBER_B, 3000);
+            // 이미 읽은 회원은 1차 캐시에서, 나머지만 한 번에 조회한다.
+            MemberLookup lookup = repository.findAllById(List.of(MEMBER_A, MEMBER_B, "none"));
+            assertThat(lookup.getMembers().get(MEMBER_B).getMoney()).isEqualTo(3000);
+            assertThat(lookup.getMissingIds()).containsExactly("none");
+        });
+
+        assertThat(repository.getHitCount()).isEqualTo(1);
+        assertThat(calls("findAllById")).isEqualTo(1);
+        assertThat(snapshot("findAllById").getRows()).isEqualTo(1);
+    }
+
+    @Test
+    void readOnlySkipsFlush() {
+        TransactionTemplate txTemplate = new TransactionTemplate(transactionManager);
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.findById(MEMBER_A);
+            repository.findById(MEMBER_B);
+        });
+
+        assertThat(repository.getFlushCount()).isZero();
+        assertThat(calls("updateAll")).isZero();
+    }
+
+    @Test
+    void flushBeforeOtherOperations() {
+        TransactionTemplate txTemplate = new TransactionTemplate(transactionManager);
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.update(MEMBER_A, 5000);
+            // 잠금 조회는 DB 에서 읽으므로 먼저 변경을 보낸다.
+            List<Member> members = repository.findAllForUpdate(List.of(MEMBER_A));
+            assertThat(members.get(0).getMoney()).isEqualTo(5000);
+        });
+
+        assertThat(repository.getFlushCount()).isEqualTo(1);
+    }
+
+    @Test
+    void outsideTransaction() {
+        repository.update(MEMBER_A, 5000);
+
+        assertThat(calls("update")).isEqualTo(1);
+        assertThat(jdbcRepository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+    }
+
+    private long calls(String method) {
+        return snapshot(method).getLatency().getCount();
+    }
+
+    private OperationSnapshot snapshot(String method) {
+        return metrics.stats("MemberRepository." + method).snapshot();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T transactional(T target) {
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+        return (T) proxyFactory.getProxy();
+    }
+}
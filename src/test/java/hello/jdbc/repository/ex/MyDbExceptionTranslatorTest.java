@@ -0,0 +1,63 @@
+package hello.jdbc.repository.ex;
+
+import hello.jdbc.repository.ex.MyDbExceptionTranslator.Category;
+import org.junit.jupiter.api.Test;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MyDbExceptionTranslatorTest {
+
+    MyDbExceptionTranslator translator = MyDbExceptionTranslator.H2;
+
+    @Test
+    void errorCode() {
+        assertThat(translator.translate(new SQLException("dup", "23505", 23505))).isInstanceOf(MyDuplicateKeyException.class);
+        assertThat(translator.translate(new SQLException("deadlock", "40001", 40001))).isInstanceOf(MyDeadlockException.class);
+        assertThat(translator.translate(new SQLException("timeout", "HYT00", 50200))).isInstanceOf(MyLockTimeoutException.class);
+        assertThat(translator.translate(new SQLException("concurrent", "90131", 90131)))
+                .isExactlyInstanceOf(MyLockConflictException.class);
+        assertThat(translator.translate(new SQLException("broken", "90067", 90067))).isInstanceOf(MyConnectionException.class);
+        assertThat(translator.translate(new SQLException("syntax", "42000", 42000))).isExactlyInstanceOf(MyDbException.class);
+    }
+
+    @Test
+    void sqlState() {
+        // 모르는 에러 코드라도 SQLState 와 SQLState 클래스로 분류한다.
+        assertThat(translator.classify(new SQLException("pg deadlock", "40P01", 0))).isEqualTo(Category.DEADLOCK);
+        assertThat(translator.classify(new SQLException("refused", "08001", 0))).isEqualTo(Category.CONNECTION);
+        assertThat(translator.classify(new SQLException("unknown", (String) null, 0))).isEqualTo(Category.OTHER);
+    }
+
+    @Test
+    void nextException() {
+        BatchUpdateException batch = new BatchUpdateException("batch", new int[0]);
+        batch.setNextException(new SQLException("dup", "23505", 23505));
+
+        assertThat(translator.classify(batch)).isEqualTo(Category.DUPLICATE_KEY);
+    }
+
+    @Test
+    void stackless() {
+        MyDbException duplicate = translator.translate(new SQLException("dup", "23505", 23505));
+        MyDbException other = translator.translate(new SQLException("syntax", "42000", 42000));
+
+        assertThat(duplicate.getStackTrace()).isEmpty();
+        assertThat(duplicate.getCause()).isInstanceOf(SQLException.class);
+        assertThat(other.getStackTrace()).isNotEmpty();
+    }
+
+    @Test
+    void customErrorCodes() {
+        // mysql 1062: 중복 키, 1213: 데드락
+        MyDbExceptionTranslator mysql = new MyDbExceptionTranslator(
+                Map.of(1062, Category.DUPLICATE_KEY, 1213, Category.DEADLOCK),
+                MyDbExceptionTranslator.STANDARD_SQL_STATES);
+
+        assertThat(mysql.translate(new SQLException("dup", "23000", 1062))).isInstanceOf(MyDuplicateKeyException.class);
+        assertThat(mysql.translate(new SQLException("deadlock", "40001", 1213))).isInstanceOf(MyDeadlockException.class);
+    }
+}
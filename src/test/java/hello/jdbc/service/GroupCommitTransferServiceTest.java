@@ -0,0 +1,100 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.TransferResult;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class GroupCommitTransferServiceTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    MemberRepository memberRepository;
+    GroupCommitTransferService transferService;
+
+    @BeforeEach
+    void before() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        memberRepository = new MemberRepositoryV4_1(dataSource);
+        // 그룹에 모두 모이도록 대기 시간을 넉넉하게 준다.
+        transferService = new GroupCommitTransferService(memberRepository, new DataSourceTransactionManager(dataSource), 10, 200, 100);
+    }
+
+    @AfterEach
+    void after() throws InterruptedException {
+        transferService.close();
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @Test
+    void groupCommit() {
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        CompletableFuture<TransferResult> first = transferService.submit(MEMBER_A, MEMBER_B, 2000);
+        CompletableFuture<TransferResult> invalid = transferService.submit(MEMBER_A, MEMBER_EX, 2000);
+        CompletableFuture<TransferResult> insufficient = transferService.submit(MEMBER_B, MEMBER_A, 20000);
+        CompletableFuture<TransferResult> second = transferService.submit(MEMBER_B, MEMBER_A, 500);
+
+        // 잘못된 이체만 실패하고 나머지는 커밋된다.
+        assertThat(first.join().isSuccess()).isTrue();
+        assertThat(invalid.join().isSuccess()).isFalse();
+        assertThat(insufficient.join().isSuccess()).isFalse();
+        assertThat(second.join().isSuccess()).isTrue();
+        log.info("groups={}, transfers={}", transferService.getCommittedGroupCount(), transferService.getCommittedTransferCount());
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(11500);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    void submitAfterClose() throws InterruptedException {
+        transferService.close();
+
+        assertThatThrownBy(() -> transferService.submit(MEMBER_A, MEMBER_B, 2000).join())
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    void interruptFailsPendingTransfers() throws InterruptedException {
+        // 그룹을 모으는 동안 커밋 스레드가 중단되면, 모으던 이체와 큐에 남은 이체가 모두 실패로 끝난다.
+        // 아래에서 이름으로 찾아 중단하므로 기본 서비스의 커밋 스레드는 먼저 종료한다.
+        transferService.close();
+        GroupCommitTransferService slowService = new GroupCommitTransferService(memberRepository,
+                new DataSourceTransactionManager(new DriverManagerDataSource(URL, USERNAME, PASSWORD)), 1000, 60_000, 100);
+        try {
+            CompletableFuture<TransferResult> pending = slowService.submit(MEMBER_A, MEMBER_B, 2000);
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("transfer-group-committer")) {
+                    thread.interrupt();
+                }
+            }
+
+            assertThatThrownBy(() -> pending.get(10, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(RejectedExecutionException.class);
+        } finally {
+            slowService.close();
+        }
+    }
+}
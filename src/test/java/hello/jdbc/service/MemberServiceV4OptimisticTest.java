@@ -0,0 +1,106 @@
+package hello.jdbc.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * OPTIMISTIC 이체를 JDBC 저장소로 검증한다.
+ * version 컬럼이 있는 member 테이블을 메모리 H2 에 만든다.
+ */
+class MemberServiceV4OptimisticTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+
+    HikariDataSource dataSource;
+    MemberRepositoryV4_1 repository;
+    MemberServiceV4 target;
+    MemberServiceV4 memberService;
+
+    @BeforeEach
+    void before() throws SQLException {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:optimistic;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setMaximumPoolSize(8);
+        try (Connection con = dataSource.getConnection(); Statement stmt = con.createStatement()) {
+            stmt.execute("drop table if exists member");
+            stmt.execute("create table member (" +
+                    "member_id varchar(10), " +
+                    "money integer not null default 0, " +
+                    "version bigint not null default 0, " +
+                    "primary key (member_id))");
+        }
+        repository = new MemberRepositoryV4_1(dataSource);
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 10000));
+
+        target = new MemberServiceV4(repository, TransferMode.OPTIMISTIC);
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new TransactionInterceptor(new DataSourceTransactionManager(dataSource), new AnnotationTransactionAttributeSource()));
+        memberService = (MemberServiceV4) proxyFactory.getProxy();
+    }
+
+    @AfterEach
+    void after() {
+        dataSource.close();
+    }
+
+    @Test
+    void accountTransfer() {
+        memberService.accountTransfer(MEMBER_B, MEMBER_A, 2000);
+
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(12000);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(8000);
+        assertThat(repository.findById(MEMBER_B).getVersion()).isEqualTo(1);
+    }
+
+    @Test
+    void oppositeTransfers() throws Exception {
+        int threads = 4;
+        int transfers = 25;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            boolean forward = t % 2 == 0;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < transfers; i++) {
+                    if (forward) {
+                        memberService.accountTransfer(MEMBER_A, MEMBER_B, 1);
+                    } else {
+                        memberService.accountTransfer(MEMBER_B, MEMBER_A, 1);
+                    }
+                }
+            }));
+        }
+        executor.shutdown();
+
+        // A->B, B->A 가 동시에 와도 member_id 순서로 바꾸므로 데드락 없이 모두 성공한다.
+        for (Future<?> result : results) {
+            result.get();
+        }
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+        assertThat(target.getOptimisticTransferCount()).isEqualTo(threads * transfers);
+    }
+}
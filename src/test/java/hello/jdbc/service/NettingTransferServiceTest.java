@@ -0,0 +1,90 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.Transfer;
+import hello.jdbc.domain.TransferResult;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NettingTransferServiceTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    DriverManagerDataSource dataSource;
+    MemberRepository memberRepository;
+
+    @BeforeEach
+    void before() {
+        dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        memberRepository = new MemberRepositoryV4_1(dataSource);
+        memberRepository.save(new Member(MEMBER_A, 1000));
+        memberRepository.save(new Member(MEMBER_B, 0));
+        memberRepository.save(new Member(MEMBER_EX, 0));
+    }
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    // B 는 잔액이 0 이라서 순서대로 적용하면 첫 이체가 실패하지만, 상계하면 모두 성공한다.
+    List<Transfer> transfers() {
+        return List.of(
+                new Transfer(MEMBER_B, MEMBER_A, 500),
+                new Transfer(MEMBER_A, MEMBER_B, 1000),
+                new Transfer(MEMBER_A, MEMBER_EX, 100));
+    }
+
+    @Test
+    void sequential() {
+        NettingTransferService service = new NettingTransferService(memberRepository, new DataSourceTransactionManager(dataSource), NettingMode.SEQUENTIAL);
+
+        List<TransferResult> results = service.transferAll(transfers());
+
+        assertThat(results).extracting(TransferResult::isSuccess).containsExactly(false, true, false);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(0);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(1000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(0);
+    }
+
+    @Test
+    void net() {
+        NettingTransferService service = new NettingTransferService(memberRepository, new DataSourceTransactionManager(dataSource), NettingMode.NET);
+
+        List<TransferResult> results = service.transferAll(transfers());
+
+        assertThat(results).extracting(TransferResult::isSuccess).containsExactly(true, true, false);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(500);
+    }
+
+    @Test
+    void netOverdrawn() {
+        NettingTransferService service = new NettingTransferService(memberRepository, new DataSourceTransactionManager(dataSource), NettingMode.NET);
+
+        assertThatThrownBy(() -> service.transferAll(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 800),
+                new Transfer(MEMBER_B, MEMBER_A, 300),
+                new Transfer(MEMBER_B, MEMBER_A, 600))))
+                .isInstanceOf(IllegalStateException.class);
+
+        // 배치 전체가 롤백된다.
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(1000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(0);
+    }
+}
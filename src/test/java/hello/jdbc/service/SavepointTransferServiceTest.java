@@ -0,0 +1,61 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.domain.Transfer;
+import hello.jdbc.domain.TransferResult;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV4_1;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SavepointTransferServiceTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    MemberRepository memberRepository;
+    SavepointTransferService transferService;
+
+    @BeforeEach
+    void before() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        memberRepository = new MemberRepositoryV4_1(dataSource);
+        transferService = new SavepointTransferService(new MemberServiceV4(memberRepository), new DataSourceTransactionManager(dataSource));
+    }
+
+    @AfterEach
+    void after() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @Test
+    void transferAll() {
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        List<TransferResult> results = transferService.transferAll(List.of(
+                new Transfer(MEMBER_A, MEMBER_B, 2000),
+                new Transfer(MEMBER_A, MEMBER_EX, 1000),
+                new Transfer(MEMBER_B, MEMBER_A, 500)));
+
+        assertThat(results).extracting(TransferResult::isSuccess).containsExactly(true, false, true);
+        assertThat(results.get(1).getFailureReason()).isEqualTo("이체 중 예외 발생");
+
+        // ex 로의 이체에서 먼저 빠진 memberA 의 1000 원은 세이브포인트까지 롤백된다.
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(11500);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+}